@@ -1,9 +1,18 @@
+#include <algorithm>
+#include <cmath>
 #include <memory>
 #include "AudioEngine.h"
 #include "OboeDebug.h"
+#include "PolyphaseResampler.h"
+#include "ResampleCache.h"
+#include "StreamHost.h"
 
 constexpr int64_t kMillisecondsInSecond = 1000;
 constexpr int64_t kNanosecondsInMillisecond = 1000000;
+// Input the capture ring holds when nobody reads it.
+constexpr int32_t kCaptureFifoMs = 2000;
+constexpr int32_t kSilenceSize = 256;
+const int16_t kSilence[kSilenceSize] = {};
 
 inline int64_t nowUptimeMillis() {
     struct timespec res;
@@ -11,6 +20,12 @@ inline int64_t nowUptimeMillis() {
     return (res.tv_sec * kMillisecondsInSecond) + res.tv_nsec / kNanosecondsInMillisecond;
 }
 
+inline int64_t nowUptimeNanos() {
+    struct timespec res;
+    clock_gettime(CLOCK_MONOTONIC, &res);
+    return res.tv_sec * kMillisecondsInSecond * kNanosecondsInMillisecond + res.tv_nsec;
+}
+
 inline int resampleSize(int sourceSize, int sourceRate, int targetRate) {
     return sourceSize * targetRate / sourceRate;
 }
@@ -24,16 +39,14 @@ inline bool isEven(int i) {
 }
 
 AudioEngine::AudioEngine(int startInputSignalThreshold, bool asSender,
-                         std::shared_ptr<Frame> outputFrames[MAX_SUPPORTED_PARTITIONS],
-                         int numOfPartitions,
+                         PartitionedFrames outputFrames,
                          int outputRate, int handshakeSize, int partitionStateChangeThreshold,
                          bool timeoutToFinish,
-                         int expectedRTTms, int expectedMsgLenMs) {
-    for (int i = 0; i < MAX_SUPPORTED_PARTITIONS; i++) {
-        mOutputFramesBeforeResampling[i] = outputFrames[i];
-    }
+                         int expectedRTTms, int expectedMsgLenMs, int resampler,
+                         int captureRate) {
+    mOutputFramesBeforeResampling = std::move(outputFrames);
     mOutputFramesRateBeforeResampling = outputRate;
-    mNumOfOutputFramePartitions = numOfPartitions;
+    mNumOfOutputFramePartitions = mOutputFramesBeforeResampling.getNumOfPartitions();
     mAsSender = asSender;
     mTimeoutToFinish = timeoutToFinish;
     mOriginalHandshakeSize = handshakeSize;
@@ -41,184 +54,251 @@ AudioEngine::AudioEngine(int startInputSignalThreshold, bool asSender,
     mPartitionStateChangeThreshold = partitionStateChangeThreshold;
     mExpectedRTTms = expectedRTTms;
     mExpectedMsgLenMs = expectedMsgLenMs;
+    mResampler = resampler;
+    mCaptureRate = captureRate;
 }
 
-bool AudioEngine::setupOutputStream() {
-    LOGD("Start setupOutputStream()");
-    AudioStreamBuilder outputStreamBuilder;
-    outputStreamBuilder.setCallback(this);
-    outputStreamBuilder.setPerformanceMode(PerformanceMode::LowLatency);
-    //outputStreamBuilder.setSharingMode(SharingMode::Exclusive);
-    outputStreamBuilder.setDirection(Direction::Output);
-    outputStreamBuilder.setChannelCount(1);
-    outputStreamBuilder.setFormat(AudioFormat::I16);
-    Result outputStreamResult = outputStreamBuilder.openStream(&mOutputStream);
-    if (outputStreamResult != Result::OK) {
-        LOGE("Failed to open output stream. Error: %s", convertToText(outputStreamResult));
-        return false;
-    }
-    mOutputFramesPerBurst = mOutputStream->getFramesPerBurst();
-    mOutputRate = mOutputStream->getSampleRate();
+AudioEngine::~AudioEngine() {
+    StreamHost::getInstance().disarm(this);
+    // Not taken over by the output callback.
+    delete mPendingSynthesizer.exchange(nullptr);
+}
 
-    int channelCount = mOutputStream->getChannelCount();
-    if (channelCount != 1) {
-        LOGW("Requested %d channels but received %d", 1, channelCount);
-        return false;
+void AudioEngine::resampleOutputFrames() {
+    if (mOutputFramesRateBeforeResampling <= 0 || mOutputRate <= 0) {
+        LOGW("Invalid output rate");
+        return;
     }
+    resampleFrames(mOutputFramesBeforeResampling, mOutputFramesRateBeforeResampling, mOutputRate,
+                   mResampler, &mOutputFrames);
+    mResampleOutputDone = true;
+}
 
-    // Set the buffer size to the burst size - this will give us the minimum possible latency
-    mOutputStream->setBufferSizeInFrames(mOutputFramesPerBurst);
-    mOutputStream->requestStart();
-    return true;
+void AudioEngine::useSynthesizer(const SymbolTiming &timing, std::vector<uint16_t> words,
+                                 int16_t highLevel, int16_t lowLevel, float initRatio, int delta,
+                                 bool ramp) {
+    mUseSynthesizer = true;
+    mSymbolTiming = timing;
+    mSymbolWords = std::move(words);
+    mNumOfOutputFramePartitions = static_cast<int>(mSymbolWords.size());
+    mShaperHighLevel = highLevel;
+    mShaperLowLevel = lowLevel;
+    mShaperInitRatio = initRatio;
+    mShaperDelta = delta;
+    mShaperRamp = ramp;
 }
 
-bool AudioEngine::setupInputStream() {
-    LOGD("Start setupInputStream()");
-    AudioStreamBuilder inputStreamBuilder;
-    inputStreamBuilder.setCallback(this);
-    inputStreamBuilder.setPerformanceMode(PerformanceMode::LowLatency);
-    //inputStreamBuilder.setSharingMode(SharingMode::Exclusive);
-    inputStreamBuilder.setDirection(Direction::Input);
-    inputStreamBuilder.setChannelCount(1);
-    inputStreamBuilder.setFormat(AudioFormat::I16);
-    Result inputStreamResult = inputStreamBuilder.openStream(&mInputStream);
-    if (inputStreamResult != Result::OK) {
-        LOGE("Failed to open input stream. Error: %s", convertToText(inputStreamResult));
-        return false;
+void AudioEngine::createSynthesizer() {
+    if (mOutputFramesRateBeforeResampling <= 0 || mOutputRate <= 0) {
+        LOGW("Invalid output rate");
+        return;
     }
-    mInputFramesPerBurst = mInputStream->getFramesPerBurst();
-    mInputRate = mInputStream->getSampleRate();
+    mSynthesizer = buildSynthesizer(mSymbolTiming, mOutputFramesRateBeforeResampling);
+    mResampleOutputDone = true;
+}
+
+std::unique_ptr<SymbolSynthesizer> AudioEngine::buildSynthesizer(const SymbolTiming &timing,
+                                                                 int sourceRate) const {
+    // Same slope in time at the output rate.
+    int64_t delta = WaveformShaper::scaleDelta(mShaperDelta, sourceRate, mOutputRate);
+    WaveformShaper shaper(mShaperHighLevel, mShaperLowLevel, mShaperInitRatio, delta,
+                          mShaperRamp);
+    return std::unique_ptr<SymbolSynthesizer>(
+            new SymbolSynthesizer(timing, mSymbolWords, shaper, mOutputRate));
+}
 
-    int channelCount = mInputStream->getChannelCount();
-    if (channelCount != 1) {
-        LOGW("Requested %d channels but received %d", 1, channelCount);
+bool AudioEngine::setSymbolTiming(const SymbolTiming &timing, int sourceRate,
+                                  int expectedMsgLenMs) {
+    // mResampleOutputDone is only set by start on this thread.
+    if (!mUseSynthesizer || !mResampleOutputDone || sourceRate <= 0 || mSymbolTimingRequested) {
         return false;
     }
-
-    // Set the buffer size to the burst size - this will give us the minimum possible latency
-    mInputStream->setBufferSizeInFrames(mInputFramesPerBurst);
-    mInputStream->requestStart();
+    mSymbolTimingRequested = true;
+    mExpectedMessageFrameLenMinusRTT = getExpectedMessageFrameLenMinusRTT(expectedMsgLenMs);
+    mPendingSynthesizer.store(buildSynthesizer(timing, sourceRate).release(),
+                              std::memory_order_release);
     return true;
 }
 
-void AudioEngine::resampleOutputFrames() {
-    if (mOutputFramesRateBeforeResampling <= 0 || mOutputRate <= 0) {
-        LOGW("Invalid output rate");
+int AudioEngine::getSymbolTimingPartition() {
+    return mSymbolTimingPartition;
+}
+
+void AudioEngine::takePendingSynthesizer(bool sending, int outputFramesPartitionIndex) {
+    SymbolSynthesizer *pending = mPendingSynthesizer.load(std::memory_order_acquire);
+    int firstPartition;
+    if (!sending) {
+        // The next partition of mine starts with the new timing.
+        int partitionNumber = mPreviousPartitionNumber + 1;
+        if (mAsSender ? isOdd(partitionNumber) : isEven(partitionNumber)) {
+            partitionNumber++;
+        }
+        firstPartition = partitionNumber / 2;
+    } else if (mCurrentOutputFrameIndex <= std::min(mSynthesizer->getHandshakeSize(),
+                                                    pending->getHandshakeSize())) {
+        // Only low handshake samples are out, the same in both timings.
+        firstPartition = outputFramesPartitionIndex;
+    } else {
         return;
     }
-    for (int i = 0; i < mNumOfOutputFramePartitions; i++) {
-        int16_t *frameContent = mOutputFramesBeforeResampling[i].get()->content;
-        long frameSize = mOutputFramesBeforeResampling[i].get()->size;
-        int outputFrameSize = static_cast<int>(frameSize * mOutputRate /
-                                               mOutputFramesRateBeforeResampling);
-        mOutputFrames[i] = std::make_shared<Frame>(outputFrameSize);
-        int16_t *content = mOutputFrames[i].get()->content;
+    mReplacedSynthesizer = std::move(mSynthesizer);
+    mSynthesizer.reset(pending);
+    mPendingSynthesizer.store(nullptr, std::memory_order_relaxed);
+    mSymbolTimingPartition = firstPartition;
+    LOGI("Switched symbol timing from partition %d", firstPartition);
+}
+
+int32_t AudioEngine::getOutputPartitionSize(int partition) const {
+    if (mSynthesizer != nullptr) {
+        return mSynthesizer->getPartitionSize(partition);
+    }
+    return mOutputFrames.getPartitionSize(partition);
+}
+
+void AudioEngine::resampleFrames(const PartitionedFrames &source, int sourceRate, int targetRate,
+                                 int resampler, PartitionedFrames *target) {
+    int numOfPartitions = source.getNumOfPartitions();
+    // Work out all resampled partition sizes first, so we allocate the output only once.
+    target->offsets.assign(numOfPartitions + 1, 0);
+    for (int i = 0; i < numOfPartitions; i++) {
+        long frameSize = source.getPartitionSize(i);
+        int outputFrameSize = static_cast<int>(frameSize * targetRate / sourceRate);
+        target->offsets[i + 1] = target->offsets[i] + outputFrameSize;
+    }
+    target->samples.resize(target->offsets[numOfPartitions]);
+    ResampleCache &cache = ResampleCache::getInstance();
+    // Only built once a partition needs it, the filter table takes a moment.
+    std::unique_ptr<PolyphaseResampler> polyphase;
+    for (int i = 0; i < numOfPartitions; i++) {
+        const int16_t *frameContent = source.getPartition(i);
+        int frameSize = source.getPartitionSize(i);
+        int outputFrameSize = target->getPartitionSize(i);
+        int16_t *content = target->samples.data() + target->offsets[i];
+        int key = source.getPartitionKey(i);
         if (outputFrameSize == frameSize) {
             // No resample need
-            memcpy(content, frameContent, outputFrameSize);
-        } else {
-            for (int j = 0; j < outputFrameSize; j++) {
-                content[j] = frameContent[
-                        static_cast<long>(j) * mOutputFramesRateBeforeResampling / mOutputRate];
+            memcpy(content, frameContent, outputFrameSize * sizeof(int16_t));
+            continue;
+        }
+        if (key != 0) {
+            std::shared_ptr<const std::vector<int16_t>> cached =
+                    cache.get(key, sourceRate, targetRate, resampler);
+            if (cached != nullptr && static_cast<int>(cached->size()) == outputFrameSize) {
+                memcpy(content, cached->data(), outputFrameSize * sizeof(int16_t));
+                continue;
+            }
+        }
+        int64_t startTime = nowUptimeNanos();
+        if (resampler == RESAMPLER_POLYPHASE) {
+            if (polyphase == nullptr) {
+                polyphase.reset(new PolyphaseResampler(sourceRate, targetRate));
             }
+            polyphase->resample(frameContent, frameSize, content, outputFrameSize);
+        } else {
+            resampleNearest(frameContent, frameSize, content, outputFrameSize, sourceRate,
+                            targetRate);
+        }
+        LOGD("Resampled partition %d with resampler %d, %d to %d frames in %lld us", i,
+             resampler, frameSize, outputFrameSize,
+             static_cast<long long>((nowUptimeNanos() - startTime) / 1000));
+        if (key != 0) {
+            cache.put(key, sourceRate, targetRate, resampler,
+                      std::make_shared<const std::vector<int16_t>>(content,
+                                                                   content + outputFrameSize));
         }
     }
-    mResampleOutputDone = true;
 }
 
 void AudioEngine::start() {
     LOGD("Start start()");
-    if (!setupOutputStream()) {
+    StreamHost &host = StreamHost::getInstance();
+    if (!host.open()) {
         return;
     }
+    mOutputRate = host.getOutputRate();
+    mInputRate = host.getInputRate();
     mNativeHandshakeSize = resampleSize(mOriginalHandshakeSize, mOutputFramesRateBeforeResampling,
                                         mOutputRate);
     int resampledPartitionStateChangeThreshold = resampleSize(mPartitionStateChangeThreshold,
                                                               mOutputFramesRateBeforeResampling,
                                                               mOutputRate);
-    resampleOutputFrames();
-    if (!setupInputStream()) {
-        return;
+    if (mUseSynthesizer) {
+        createSynthesizer();
+    } else {
+        resampleOutputFrames();
     }
-    if (mExpectedRTTms > 0 && mExpectedMsgLenMs > 0) {
-        // Optimize reply latency
-        if (mExpectedMsgLenMs < mExpectedRTTms) {
-            mExpectedMessageFrameLenMinusRTT = 0;
-        } else {
-            mExpectedMessageFrameLenMinusRTT =
-                    mOutputRate * (mExpectedMsgLenMs - mExpectedRTTms / 2) / 1000;
-        }
-        int minLen = mOutputRate * mExpectedMsgLenMs / 1000 / 16 /* magic number */;
-        mExpectedMessageFrameLenMinusRTT = mExpectedMessageFrameLenMinusRTT > minLen ?
-                                           mExpectedMessageFrameLenMinusRTT : minLen;
-        LOGE("ExpectedMessageFrameLenMinusRTT: %d %d %d %d", mExpectedMessageFrameLenMinusRTT,
-             mOutputRate, mExpectedMsgLenMs, mExpectedRTTms);
+    if (mCaptureRate > 0 && mCaptureRate < mInputRate) {
+        mRecordedRate = mCaptureRate;
+        mDecimator.reset(new CaptureDecimator(mInputRate, mRecordedRate,
+                                              mStartInputSignalThreshold));
+    } else {
+        mRecordedRate = mInputRate;
+        mDecimator.reset();
     }
+    mCaptureFifo.reset(new FifoBuffer(
+            sizeof(int16_t), static_cast<uint32_t>(mRecordedRate * kCaptureFifoMs / 1000)));
+    mExpectedMessageFrameLenMinusRTT = getExpectedMessageFrameLenMinusRTT(mExpectedMsgLenMs);
     mPartitionState = std::make_shared<PartitionState>(mStartInputSignalThreshold,
                                                        resampledPartitionStateChangeThreshold);
-    mCurrentStatus = STATUS_PENDING_SIGNAL;
+    mCurrentStatus.set(STATUS_PENDING_SIGNAL);
+    // Everything is ready, the streams are running already so this starts on the next burst.
+    host.arm(this);
     LOGD("Finished start()");
 }
 
+int AudioEngine::getExpectedMessageFrameLenMinusRTT(int expectedMsgLenMs) const {
+    if (mExpectedRTTms <= 0 || expectedMsgLenMs <= 0) {
+        return 0;
+    }
+    // Optimize reply latency
+    int expectedMessageFrameLenMinusRTT = 0;
+    if (expectedMsgLenMs >= mExpectedRTTms) {
+        expectedMessageFrameLenMinusRTT =
+                mOutputRate * (expectedMsgLenMs - mExpectedRTTms / 2) / 1000;
+    }
+    int minLen = mOutputRate * expectedMsgLenMs / 1000 / 16 /* magic number */;
+    expectedMessageFrameLenMinusRTT = std::max(expectedMessageFrameLenMinusRTT, minLen);
+    LOGE("ExpectedMessageFrameLenMinusRTT: %d %d %d %d", expectedMessageFrameLenMinusRTT,
+         mOutputRate, expectedMsgLenMs, mExpectedRTTms);
+    return expectedMessageFrameLenMinusRTT;
+}
+
 void AudioEngine::stop() {
     LOGD("stop()");
-    if (mInputStream != nullptr) {
-        oboe::Result result = mInputStream->requestStop();
-        if (result != oboe::Result::OK) {
-            LOGE("Error stopping output stream. %s", oboe::convertToText(result));
-        }
-
-        result = mInputStream->close();
-        if (result != oboe::Result::OK) {
-            LOGE("Error closing output stream. %s", oboe::convertToText(result));
-        }
-    }
-    if (mOutputStream != nullptr) {
-        oboe::Result result = mOutputStream->requestStop();
-        if (result != oboe::Result::OK) {
-            LOGE("Error stopping output stream. %s", oboe::convertToText(result));
-        }
+    // The streams stay open for the next exchange.
+    StreamHost::getInstance().disarm(this);
+    mCurrentStatus.wake();
+    LOGD("Finished stop()");
+}
 
-        result = mOutputStream->close();
-        if (result != oboe::Result::OK) {
-            LOGE("Error closing output stream. %s", oboe::convertToText(result));
-        }
+void AudioEngine::onInputReady(int16_t *audioData, int32_t numFrames) {
+    if (!mInputStreamReady) {
+        LOGD("InputStream ready");
+        mInputStreamReady = true;
     }
-    LOGD("Finished stop()");
+    handleNewInput(audioData, numFrames);
 }
 
-DataCallbackResult
-AudioEngine::onAudioReady(AudioStream *oboeStream, void *audioData, int32_t numFrames) {
-    if (oboeStream == mInputStream) {
-        if (!mInputStreamReady) {
-            LOGD("InputStream ready");
-            mInputStreamReady = true;
-        }
-        return handleNewInput(static_cast<int16_t *>(audioData), numFrames);
-    } else if (oboeStream == mOutputStream) {
-        if (!mOutputStreamReady) {
-            LOGD("OutputStream ready");
-            mOutputStreamReady = true;
-        }
-        return handleNewOutput(static_cast<int16_t *>(audioData), numFrames);
-    } else {
-        LOGE("WTF?");
+void AudioEngine::onOutputReady(int16_t *audioData, int32_t numFrames) {
+    if (!mOutputStreamReady) {
+        LOGD("OutputStream ready");
+        mOutputStreamReady = true;
     }
-    return DataCallbackResult::Continue;
+    handleNewOutput(audioData, numFrames);
 }
 
 DataCallbackResult AudioEngine::handleNewInput(int16_t *audioData, int32_t numFrames) {
     if (mOutputStreamReady && mInputStreamReady && mPartitionState != nullptr) {
+        bool partitionEnded = false;
         for (int i = 0; i < numFrames; i++) {
-            mInputRecord.push_back(audioData[i]);
             bool changedState = mPartitionState->updateDigitalInputSignalAndPartition(audioData[i]);
             int partitionState = mPartitionState->getPartitionState();
             int partitionNumber = mPartitionState->getPartitionNumber();
-            if (mCurrentStatus == STATUS_PENDING_SIGNAL &&
+            if (mCurrentStatus.get() == STATUS_PENDING_SIGNAL &&
                 (partitionNumber > 0 ||
                  partitionState != PARTITION_STATUS_PENDING || mAsSender)) {
                 LOGI("Start processing signal!");
-                mCurrentStatus = STATUS_PROCESSING_SIGNAL;
+                mCurrentStatus.set(STATUS_PROCESSING_SIGNAL);
             }
             if (mStartReceiveSignalTime == 0 &&
                 (partitionNumber > 0 ||
@@ -231,21 +311,26 @@ DataCallbackResult AudioEngine::handleNewInput(int16_t *audioData, int32_t numFr
                     case PARTITION_STATUS_PENDING:
                         if (partitionNumber - 1 < MAX_SUPPORTED_PARTITIONS &&
                             partitionNumber >= 1) {
-                            mPartitionSignalEndIndex[partitionNumber - 1] = mCurrentInputFrameIndex;
+                            mPartitionIndex.set(partitionNumber - 1,
+                                                PARTITION_STATUS_PROCESSING_MESSAGE,
+                                                mCurrentInputFrameIndex);
+                            partitionEnded = true;
                         } else {
                             LOGE("partitionNumber too large: %d", partitionNumber);
                         }
                         break;
                     case PARTITION_STATUS_HANDSHAKE:
                         if (partitionNumber < MAX_SUPPORTED_PARTITIONS) {
-                            mPartitionHandshakeStartIndex[partitionNumber] = mCurrentInputFrameIndex;
+                            mPartitionIndex.set(partitionNumber, PARTITION_STATUS_PENDING,
+                                                mCurrentInputFrameIndex);
                         } else {
                             LOGE("partitionNumber too large: %d", partitionNumber);
                         }
                         break;
                     case PARTITION_STATUS_PROCESSING_MESSAGE:
                         if (partitionNumber < MAX_SUPPORTED_PARTITIONS) {
-                            mPartitionHandshakeEndIndex[partitionNumber] = mCurrentInputFrameIndex;
+                            mPartitionIndex.set(partitionNumber, PARTITION_STATUS_HANDSHAKE,
+                                                mCurrentInputFrameIndex);
                         } else {
                             LOGE("partitionNumber too large: %d", partitionNumber);
                         }
@@ -267,8 +352,9 @@ DataCallbackResult AudioEngine::handleNewInput(int16_t *audioData, int32_t numFr
                     (!mAsSender && isEven(partitionNumber))) {
                     if (mExpectedMessageFrameLenMinusRTT != 0 &&
                         ((partitionNumber + 1) < (mNumOfOutputFramePartitions * 2)) &&
-                        mPartitionHandshakeEndIndex[partitionNumber] != 0 &&
-                        (mCurrentInputFrameIndex - mPartitionHandshakeEndIndex[partitionNumber])
+                        mPartitionIndex.get(partitionNumber, PARTITION_STATUS_HANDSHAKE) != 0 &&
+                        (mCurrentInputFrameIndex -
+                         mPartitionIndex.get(partitionNumber, PARTITION_STATUS_HANDSHAKE))
                         >= mExpectedMessageFrameLenMinusRTT) {
                         startSendNextPartition = true;
                     }
@@ -285,14 +371,74 @@ DataCallbackResult AudioEngine::handleNewInput(int16_t *audioData, int32_t numFr
             }
             mCurrentInputFrameIndex++;
         }
-        if (mCurrentStatus == STATUS_PENDING_SIGNAL) {
-            mInputRecord.clear();
+        if (mCurrentStatus.get() == STATUS_PENDING_SIGNAL) {
+            // Nothing is recorded until a signal comes.
             mCurrentInputFrameIndex = 0;
+            if (mDecimator != nullptr) {
+                mDecimator->reset();
+            }
+        } else if (mDecimator != nullptr) {
+            // Still decimated while silence is owed, so the block phase keeps going.
+            FifoBuffer *fifo = writeCaptureGap() ? mCaptureFifo.get() : nullptr;
+            onCaptureDropped(mDecimator->process(audioData, numFrames, fifo));
+        } else if (writeCaptureGap()) {
+            onCaptureDropped(numFrames - mCaptureFifo->write(audioData, numFrames));
+        } else {
+            onCaptureDropped(numFrames);
+        }
+        if (partitionEnded) {
+            // Waiters can decode the partition now, its samples are in the capture ring.
+            mCurrentStatus.wake();
         }
     }
     return DataCallbackResult::Continue;
 }
 
+bool AudioEngine::writeCaptureGap() {
+    while (mCaptureGap > 0) {
+        int32_t size = std::min(mCaptureGap, kSilenceSize);
+        int32_t written = mCaptureFifo->write(kSilence, size);
+        mCaptureGap -= written;
+        if (written < size) {
+            return false;
+        }
+    }
+    return true;
+}
+
+void AudioEngine::onCaptureDropped(int32_t numSamples) {
+    if (numSamples <= 0) {
+        return;
+    }
+    // Samples after a gap are only written once its silence is, so the recording keeps one
+    // sample per recorded frame and the partition indexes still point at the right samples.
+    mCaptureGap += numSamples;
+    mDroppedCaptureSamples += numSamples;
+}
+
+void AudioEngine::copyOutputFrames(int outputFramesPartitionIndex, int16_t *audioData,
+                                   int32_t numFrames) {
+    const int16_t *currentOutputPartitionFrameContent = mOutputFrames.getPartition(
+            outputFramesPartitionIndex);
+    int currentOutputPartitionFrameSize = mOutputFrames.getPartitionSize(
+            outputFramesPartitionIndex);
+    int int16_t_size = sizeof(int16_t);
+    if (numFrames <= currentOutputPartitionFrameSize - mCurrentOutputFrameIndex) {
+        memcpy(audioData, currentOutputPartitionFrameContent + mCurrentOutputFrameIndex,
+               numFrames * int16_t_size);
+    } else {
+        memset(audioData, 0, int16_t_size * numFrames);
+        if (currentOutputPartitionFrameSize > mCurrentOutputFrameIndex) {
+            memcpy(audioData, currentOutputPartitionFrameContent + mCurrentOutputFrameIndex,
+                   (currentOutputPartitionFrameSize - mCurrentOutputFrameIndex) * int16_t_size);
+            LOGI("Finished sending signal");
+        } else {
+            LOGI("Should not happen: %d %d %d", mPreviousPartitionNumber,
+                 outputFramesPartitionIndex, mCurrentOutputFrameIndex);
+        }
+    }
+}
+
 DataCallbackResult AudioEngine::handleNewOutput(int16_t *audioData, int32_t numFrames) {
     if (!mResampleOutputDone || mPartitionState == nullptr) {
         memset(audioData, 0, sizeof(int16_t) * numFrames);
@@ -313,39 +459,38 @@ DataCallbackResult AudioEngine::handleNewOutput(int16_t *audioData, int32_t numF
 
     if (outputFramesPartitionIndex >= mNumOfOutputFramePartitions ||
         ((outputFramesPartitionIndex < mNumOfOutputFramePartitions - 1)
-         && mOutputFrames[outputFramesPartitionIndex].get()->size <= mCurrentOutputFrameIndex)) {
+         && getOutputPartitionSize(outputFramesPartitionIndex) <=
+            mCurrentOutputFrameIndex)) {
         if (needSend) {
             needSend = false;
         }
         if (mTimeoutToFinish) {
             if (mCurrentOutputFrameIndex > mNativeHandshakeSize * 4) {
                 LOGI("Changing status to finish");
-                mCurrentStatus = STATUS_FINISHED;
+                mCurrentStatus.set(STATUS_FINISHED);
             }
         }
     }
+    if (mPendingSynthesizer.load(std::memory_order_relaxed) != nullptr) {
+        takePendingSynthesizer(needSend, outputFramesPartitionIndex);
+    }
 
     if (needSend) {
-        int16_t* currentOutputPartitionFrameContent = mOutputFrames[outputFramesPartitionIndex].get()->content;
-        int currentOutputPartitionFrameSize = mOutputFrames[outputFramesPartitionIndex].get()->size;
         if (mStartSendSignalTime == 0) {
             mStartSendSignalTime = nowUptimeMillis();
             LOGI("record mStartSendSignalTime %ld", mStartSendSignalTime);
         }
-        int int16_t_size = sizeof(int16_t);
-        if (numFrames <= currentOutputPartitionFrameSize - mCurrentOutputFrameIndex) {
-            memcpy(audioData, currentOutputPartitionFrameContent + mCurrentOutputFrameIndex,
-                   numFrames * int16_t_size);
-        } else {
-            memset(audioData, 0, int16_t_size * numFrames);
-            if (currentOutputPartitionFrameSize > mCurrentOutputFrameIndex) {
-                memcpy(audioData, currentOutputPartitionFrameContent + mCurrentOutputFrameIndex,
-                       (currentOutputPartitionFrameSize - mCurrentOutputFrameIndex) * int16_t_size);
+        if (mSynthesizer != nullptr) {
+            mSynthesizer->render(outputFramesPartitionIndex, mCurrentOutputFrameIndex, audioData,
+                                 numFrames);
+            int32_t currentOutputPartitionFrameSize = mSynthesizer->getPartitionSize(
+                    outputFramesPartitionIndex);
+            if (mCurrentOutputFrameIndex < currentOutputPartitionFrameSize
+                && currentOutputPartitionFrameSize <= mCurrentOutputFrameIndex + numFrames) {
                 LOGI("Finished sending signal");
-            } else {
-                LOGI("Should not happen: %d %d %d", mPreviousPartitionNumber,
-                     outputFramesPartitionIndex, mCurrentOutputFrameIndex);
             }
+        } else {
+            copyOutputFrames(outputFramesPartitionIndex, audioData, numFrames);
         }
     } else {
         memset(audioData, 0, sizeof(int16_t) * numFrames);
@@ -357,7 +502,15 @@ DataCallbackResult AudioEngine::handleNewOutput(int16_t *audioData, int32_t numF
 }
 
 int AudioEngine::getStatus() {
-    return mCurrentStatus;
+    return mCurrentStatus.get();
+}
+
+int AudioEngine::waitForStatusChange(int status, int timeoutMs) {
+    return mCurrentStatus.waitForChange(status, timeoutMs);
+}
+
+void AudioEngine::wakeStatusWaiters() {
+    mCurrentStatus.wake();
 }
 
 int64_t AudioEngine::getRTT() {
@@ -365,26 +518,52 @@ int64_t AudioEngine::getRTT() {
 }
 
 int AudioEngine::getRecordedRate() {
-    return mInputRate;
+    return mRecordedRate;
 }
 
-std::vector<int16_t> AudioEngine::getRecordedSignal() {
-    return mInputRecord;
+std::unique_ptr<std::vector<int16_t>> AudioEngine::takeRecordedSignal() {
+    StreamHost::getInstance().disarm(this);
+    std::lock_guard<std::mutex> lock(mInputRecordLock);
+    if (mCaptureFifo != nullptr) {
+        appendCapturedInput(mCaptureFifo->getFifoControllerBase()->getFullFramesAvailable());
+    }
+    // Silence that never fit in the ring, the audio thread is done with the gap now.
+    mInputRecord.resize(mInputRecord.size() + mCaptureGap, 0);
+    mCaptureGap = 0;
+    if (mDroppedCaptureSamples > 0) {
+        LOGW("Capture ring was full, replaced %d samples with silence",
+             mDroppedCaptureSamples.load());
+    }
+    std::unique_ptr<std::vector<int16_t>> record(new std::vector<int16_t>());
+    record->swap(mInputRecord);
+    return record;
 }
 
-int AudioEngine::getPartitionIndex(int partitionNumber, int label) {
-    if (partitionNumber < 0 || partitionNumber >= MAX_SUPPORTED_PARTITIONS) {
-        LOGE("Bad partition number %d", partitionNumber);
-        return -1;
+int32_t AudioEngine::readRecordedSignal(int16_t *buffer, int32_t numFrames) {
+    std::lock_guard<std::mutex> lock(mInputRecordLock);
+    if (mCaptureFifo == nullptr) {
+        return 0;
     }
-    switch (label) {
-        case PARTITION_STATUS_PENDING:
-            return mPartitionHandshakeStartIndex[partitionNumber];
-        case PARTITION_STATUS_HANDSHAKE:
-            return mPartitionHandshakeEndIndex[partitionNumber];
-        case PARTITION_STATUS_PROCESSING_MESSAGE:
-            return mPartitionSignalEndIndex[partitionNumber];
-        default:
-            return -1;
+    int32_t read = appendCapturedInput(numFrames);
+    memcpy(buffer, mInputRecord.data() + mInputRecord.size() - read, read * sizeof(int16_t));
+    return read;
+}
+
+int32_t AudioEngine::appendCapturedInput(int32_t maxFrames) {
+    size_t size = mInputRecord.size();
+    mInputRecord.resize(size + maxFrames);
+    int32_t read = mCaptureFifo->read(mInputRecord.data() + size, maxFrames);
+    mInputRecord.resize(size + read);
+    return read;
+}
+
+void AudioEngine::snapshotPartitionIndex(int32_t *dst) {
+    mPartitionIndex.snapshot(dst);
+    if (mDecimator == nullptr) {
+        return;
+    }
+    // The audio thread counts input frames, the recording holds decimated samples.
+    for (int i = 0; i < MAX_SUPPORTED_PARTITIONS * PARTITION_INDEX_FIELDS; i++) {
+        dst[i] = mDecimator->toRecordedIndex(dst[i]);
     }
-}
\ No newline at end of file
+}
@@ -1,68 +1,130 @@
 #ifndef AUDIOENGINE_H
 #define AUDIOENGINE_H
 
+#define STATUS_NOT_INITED (-1)
 #define STATUS_PENDING_SIGNAL 0
 #define STATUS_PROCESSING_SIGNAL 1
 #define STATUS_FINISHED 2
 
+// How output frames are resampled to the device rate.
+#define RESAMPLER_NEAREST 0
+#define RESAMPLER_POLYPHASE 1
+
 #include <oboe/Oboe.h>
+#include <atomic>
+#include <memory>
+#include <mutex>
 #include <vector>
 
-#include "PartitionState.h"
+#include "fifo/FifoBuffer.h"
+#include "CaptureDecimator.h"
+#include "PartitionIndexTable.h"
 
-const int MAX_SUPPORTED_PARTITIONS = 32;
+#include "PartitionState.h"
+#include "StatusEvent.h"
+#include "SymbolSynthesizer.h"
 
 using namespace oboe;
 
-class Frame {
+// Frames of all partitions stored back to back, partition i starts at offsets[i] and
+// offsets has one more entry (the total size) than the number of partitions.
+// keys identify the content of each partition for ResampleCache, 0 means not cacheable.
+class PartitionedFrames {
 public:
-    int16_t *content = nullptr;
-    int size;
+    std::vector<int16_t> samples;
+    std::vector<int> offsets;
+    std::vector<int> keys;
+
+    int getNumOfPartitions() const {
+        return offsets.empty() ? 0 : static_cast<int>(offsets.size()) - 1;
+    }
+
+    const int16_t *getPartition(int partition) const {
+        return samples.data() + offsets[partition];
+    }
 
-    Frame(int s) {
-        size = s;
-        content = new int16_t[size];
+    int getPartitionSize(int partition) const {
+        return offsets[partition + 1] - offsets[partition];
     }
 
-    ~Frame() {
-        if (content) {
-            delete content;
-        }
+    int getPartitionKey(int partition) const {
+        return partition < static_cast<int>(keys.size()) ? keys[partition] : 0;
     }
 };
 
-class AudioEngine : public AudioStreamCallback {
+// One exchange. The streams belong to StreamHost and stay open, start arms this session on them
+// and stop disarms it.
+class AudioEngine {
 
 public:
-    AudioEngine(int startInputSignalThreshold, bool asSender,
-                std::shared_ptr<Frame> outputFrames[MAX_SUPPORTED_PARTITIONS], int numOfPartitions,
+    AudioEngine(int startInputSignalThreshold, bool asSender, PartitionedFrames outputFrames,
                 int outputRate,
                 int handshakeSize, int partitionStateChangeThreshold, bool timeoutToFinish,
-                int expectedRTT, int expectedMsgLenMs);
+                int expectedRTT, int expectedMsgLenMs, int resampler, int captureRate);
 
-    DataCallbackResult
-    onAudioReady(AudioStream *oboeStream, void *audioData, int32_t numFrames) override;
+    ~AudioEngine();
+
+    // Called by StreamHost on the audio threads while this session is armed.
+    void onInputReady(int16_t *audioData, int32_t numFrames);
+
+    void onOutputReady(int16_t *audioData, int32_t numFrames);
+
+    // Render output from words with SymbolSynthesizer instead of the output frames, which may
+    // be empty then. The shaping parameters are the ones of WaveformShaper, with delta per
+    // sample at the output frames rate. Call before start.
+    void useSynthesizer(const SymbolTiming &timing, std::vector<uint16_t> words,
+                        int16_t highLevel, int16_t lowLevel, float initRatio, int delta,
+                        bool ramp);
 
     void start();
 
+    // Switch a started synthesizing session to the symbol timing of another toy family, once
+    // the partner is detected. sourceRate is the rate delta of useSynthesizer applies at for
+    // that family, expectedMsgLenMs its message length for the reply latency optimization.
+    // The output callback takes the new synthesizer over right away if it is not sending, or
+    // only the handshake of the current partition is out, which is low in any timing.
+    // Otherwise it waits for the next partition. Only once per session, returns false if the
+    // session does not synthesize or it was called before.
+    bool setSymbolTiming(const SymbolTiming &timing, int sourceRate, int expectedMsgLenMs);
+
+    // Index of the first output partition sent fully with the timing of setSymbolTiming, -1
+    // until the output callback switched to it.
+    int getSymbolTimingPartition();
+
     void stop();
 
     int64_t getRTT();
 
     int getStatus();
 
-    std::vector<int16_t> getRecordedSignal();
+    // See StatusEvent::waitForChange, waiters are also woken when a partition ends.
+    int waitForStatusChange(int status, int timeoutMs);
+
+    // Wake threads in waitForStatusChange, so they can see a stop request.
+    void wakeStatusWaiters();
+
+    // Move the recording out of the engine, the session is disarmed first so nothing is
+    // appended to it afterwards.
+    std::unique_ptr<std::vector<int16_t>> takeRecordedSignal();
 
+    // Copy at most numFrames samples recorded since the last read to buffer, while the
+    // exchange is still running. Only one thread may read. Returns the number of samples.
+    int32_t readRecordedSignal(int16_t *buffer, int32_t numFrames);
+
+    // The input rate, or the capture rate when the input is decimated to it.
     int getRecordedRate();
 
-    int getPartitionIndex(int partitionNumber, int label);
+    // Copy all partition boundaries to dst, see PartitionIndexTable::snapshot, as indexes of
+    // the recorded samples.
+    void snapshotPartitionIndex(int32_t *dst);
+
+    // Resample source to targetRate into target with the RESAMPLER_* resampler, reusing and
+    // filling ResampleCache.
+    static void resampleFrames(const PartitionedFrames &source, int sourceRate, int targetRate,
+                               int resampler, PartitionedFrames *target);
 
 
 private:
-    AudioStream *mOutputStream = nullptr;
-    AudioStream *mInputStream = nullptr;
-    int mInputFramesPerBurst = 0;
-    int mOutputFramesPerBurst = 0;
     int mInputRate = 0;
     int mOutputRate = 0;
 
@@ -73,16 +135,41 @@ private:
     int mOriginalHandshakeSize = 0;
     int mStartInputSignalThreshold = 0;
     int mPartitionStateChangeThreshold = 0;
-    std::shared_ptr<Frame> mOutputFramesBeforeResampling[MAX_SUPPORTED_PARTITIONS];
+    PartitionedFrames mOutputFramesBeforeResampling;
     int mOutputFramesRateBeforeResampling = 0;
     int mExpectedRTTms = 0;
     int mExpectedMsgLenMs = 0;
+    int mResampler = RESAMPLER_NEAREST;
+    // Recording rate the input is decimated to, 0 records at the input rate.
+    int mCaptureRate = 0;
+
+    // Set by useSynthesizer
+    bool mUseSynthesizer = false;
+    SymbolTiming mSymbolTiming;
+    std::vector<uint16_t> mSymbolWords;
+    int16_t mShaperHighLevel = 0;
+    int16_t mShaperLowLevel = 0;
+    float mShaperInitRatio = 0;
+    int mShaperDelta = 0;
+    bool mShaperRamp = false;
 
     // Generated from user settings
-    std::shared_ptr<Frame> mOutputFrames[MAX_SUPPORTED_PARTITIONS];
+    PartitionedFrames mOutputFrames;
+    std::unique_ptr<SymbolSynthesizer> mSynthesizer;
     int mNativeHandshakeSize = 0;
-    int mExpectedMessageFrameLenMinusRTT = 0;
+    // Also set by setSymbolTiming while the input callback reads it.
+    std::atomic<int> mExpectedMessageFrameLenMinusRTT{0};
     bool mResampleOutputDone = false;
+    int mRecordedRate = 0;
+    // Null when the input is recorded at its own rate.
+    std::unique_ptr<CaptureDecimator> mDecimator;
+    // Built by setSymbolTiming, owned by the output callback once it takes it over.
+    std::atomic<SymbolSynthesizer *> mPendingSynthesizer{nullptr};
+    bool mSymbolTimingRequested = false;
+    // The synthesizer replaced by the pending one, freed with the session instead of in the
+    // output callback.
+    std::unique_ptr<SymbolSynthesizer> mReplacedSynthesizer;
+    std::atomic<int> mSymbolTimingPartition{-1};
 
     // Current state
     int mCurrentOutputFrameIndex = 0;
@@ -91,24 +178,53 @@ private:
     bool mAppliedLatencyOptimization = false;
     bool mInputStreamReady = false;
     bool mOutputStreamReady = false;
+    // The audio thread writes input to the preallocated capture ring only, the reader moves it
+    // to mInputRecord, so the callback never allocates.
+    std::unique_ptr<FifoBuffer> mCaptureFifo;
+    // Recorded samples that did not fit in the capture ring and are still owed as silence,
+    // audio thread only until the session is disarmed.
+    int32_t mCaptureGap = 0;
+    std::atomic<int32_t> mDroppedCaptureSamples{0};
+    std::mutex mInputRecordLock;
     std::vector<int16_t> mInputRecord;
-    int mCurrentStatus = STATUS_PENDING_SIGNAL;
+    StatusEvent mCurrentStatus{STATUS_PENDING_SIGNAL};
     std::shared_ptr<PartitionState> mPartitionState;
     int64_t mStartSendSignalTime = 0;
     int64_t mStartReceiveSignalTime = 0;
-    int mPartitionHandshakeStartIndex[MAX_SUPPORTED_PARTITIONS] = {};
-    int mPartitionHandshakeEndIndex[MAX_SUPPORTED_PARTITIONS] = {};
-    int mPartitionSignalEndIndex[MAX_SUPPORTED_PARTITIONS] = {};
-
-    bool setupOutputStream();
-
-    bool setupInputStream();
+    PartitionIndexTable mPartitionIndex;
 
     DataCallbackResult handleNewInput(int16_t *audioData, int32_t numFrames);
 
     DataCallbackResult handleNewOutput(int16_t *audioData, int32_t numFrames);
 
+    // Copy output frames of a partition from mCurrentOutputFrameIndex, silence after its end.
+    void copyOutputFrames(int outputFramesPartitionIndex, int16_t *audioData, int32_t numFrames);
+
     void resampleOutputFrames();
+
+    void createSynthesizer();
+
+    // Synthesizer of mSymbolWords with timing at the output rate, delta of useSynthesizer is
+    // scaled from sourceRate.
+    std::unique_ptr<SymbolSynthesizer> buildSynthesizer(const SymbolTiming &timing,
+                                                        int sourceRate) const;
+
+    // Switch to mPendingSynthesizer if the output so far allows, see setSymbolTiming.
+    void takePendingSynthesizer(bool sending, int outputFramesPartitionIndex);
+
+    int getExpectedMessageFrameLenMinusRTT(int expectedMsgLenMs) const;
+
+    int32_t getOutputPartitionSize(int partition) const;
+
+    // Write the silence owed for dropped samples to the capture ring, as much as fits. Returns
+    // true when nothing is owed any more.
+    bool writeCaptureGap();
+
+    // Count samples that did not fit in the capture ring, they are replaced by silence.
+    void onCaptureDropped(int32_t numSamples);
+
+    // Move at most maxFrames samples from the capture ring to the end of mInputRecord.
+    int32_t appendCapturedInput(int32_t maxFrames);
 };
 
 
@@ -0,0 +1,73 @@
+#include "CaptureDecimator.h"
+
+const int16_t CaptureDecimator::kHighLevel;
+const int16_t CaptureDecimator::kLowLevel;
+
+CaptureDecimator::CaptureDecimator(int inputRate, int outputRate, int threshold)
+        : mInputRate(inputRate), mOutputRate(outputRate), mThreshold(threshold) {
+}
+
+void CaptureDecimator::reset() {
+    mStarted = false;
+    mHighCount = 0;
+    mCount = 0;
+    mPhase = 0;
+}
+
+int32_t CaptureDecimator::process(const int16_t *input, int32_t numFrames, FifoBuffer *fifo) {
+    int16_t chunk[kChunkSize];
+    int32_t chunkSize = 0;
+    int32_t dropped = 0;
+    for (int32_t i = 0; i < numFrames; i++) {
+        int16_t sample = input[i];
+        if (!mStarted) {
+            // Same guess as AnalogToDigitalConverter.resetWithGuess(threshold).
+            mStarted = true;
+            mLevel = sample > mThreshold;
+            mBlockLevel = mLevel;
+        } else {
+            int diff = sample - mPreviousSample;
+            if (diff > mThreshold) {
+                mLevel = true;
+            } else if (diff < -mThreshold) {
+                mLevel = false;
+            }
+        }
+        mPreviousSample = sample;
+        mHighCount += mLevel ? 1 : 0;
+        mCount++;
+        mPhase += mOutputRate;
+        if (mPhase < mInputRate) {
+            continue;
+        }
+        // The block ends with this sample, one recorded sample per mInputRate / mOutputRate
+        // input samples on average.
+        mPhase -= mInputRate;
+        if (mHighCount * 2 != mCount) {
+            mBlockLevel = mHighCount * 2 > mCount;
+        }
+        chunk[chunkSize++] = mBlockLevel ? kHighLevel : kLowLevel;
+        mHighCount = 0;
+        mCount = 0;
+        if (chunkSize == kChunkSize) {
+            dropped += writeChunk(chunk, chunkSize, &fifo);
+            chunkSize = 0;
+        }
+    }
+    if (chunkSize > 0) {
+        dropped += writeChunk(chunk, chunkSize, &fifo);
+    }
+    return dropped;
+}
+
+int32_t CaptureDecimator::writeChunk(const int16_t *chunk, int32_t size, FifoBuffer **fifo) {
+    int32_t written = *fifo == nullptr ? 0 : (*fifo)->write(chunk, size);
+    if (written < size) {
+        *fifo = nullptr;
+    }
+    return size - written;
+}
+
+int32_t CaptureDecimator::toRecordedIndex(int32_t inputIndex) const {
+    return static_cast<int32_t>(static_cast<int64_t>(inputIndex) * mOutputRate / mInputRate);
+}
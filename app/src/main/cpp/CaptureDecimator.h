@@ -0,0 +1,59 @@
+#ifndef CAPTUREDECIMATOR_H
+#define CAPTUREDECIMATOR_H
+
+#include <cstdint>
+
+#include "fifo/FifoBuffer.h"
+
+using namespace oboe;
+
+// Reduces the input to a lower recording rate inside the input callback. Input samples are turned
+// into levels at the input rate the way AnalogToDigitalConverter does, and each recorded sample
+// is the level most samples of its block have, as kHighLevel or kLowLevel. A tie keeps the
+// previous level. So an edge moves by at most half a block, and glitches shorter than half a
+// block are dropped instead of smeared into the neighbours. An integer accumulator over the two
+// rates picks the block lengths, so fractional ratios like 44100 to 12000 never drift.
+class CaptureDecimator {
+public:
+    // Recorded levels, far enough apart for any threshold, and the high one above it.
+    static const int16_t kHighLevel = INT16_MAX;
+    static const int16_t kLowLevel = INT16_MIN;
+
+    // threshold is the voltage change threshold of AnalogToDigitalConverter.
+    CaptureDecimator(int inputRate, int outputRate, int threshold);
+
+    // Start a new recording, the next input sample begins the first block.
+    void reset();
+
+    // Reduce numFrames input samples and write the finished blocks to fifo, without allocating.
+    // Once a block does not fit, the later ones are not written either so the order is kept.
+    // Returns the number of recorded samples that were not written, all of them if fifo is
+    // null.
+    int32_t process(const int16_t *input, int32_t numFrames, FifoBuffer *fifo);
+
+    // Index of the recorded sample that covers input frame inputIndex of the recording.
+    int32_t toRecordedIndex(int32_t inputIndex) const;
+
+private:
+    static const int kChunkSize = 256;
+
+    int mInputRate;
+    int mOutputRate;
+    int mThreshold;
+    bool mStarted = false;
+    int16_t mPreviousSample = 0;
+    bool mLevel = false;
+    // Level of the previous block.
+    bool mBlockLevel = false;
+    int32_t mHighCount = 0;
+    int32_t mCount = 0;
+    // Recorded samples owed to the current block, times mInputRate.
+    int32_t mPhase = 0;
+
+    // Write a chunk to *fifo, and clear *fifo if it did not all fit. Returns the samples not
+    // written.
+    static int32_t writeChunk(const int16_t *chunk, int32_t size, FifoBuffer **fifo);
+};
+
+
+#endif //CAPTUREDECIMATOR_H
@@ -0,0 +1,35 @@
+#include "PartitionIndexTable.h"
+
+PartitionIndexTable::PartitionIndexTable() : mSequence(0) {
+    for (int i = 0; i < kSize; i++) {
+        mIndex[i].store(0, std::memory_order_relaxed);
+    }
+}
+
+void PartitionIndexTable::set(int partition, int field, int32_t value) {
+    uint32_t sequence = mSequence.load(std::memory_order_relaxed);
+    mSequence.store(sequence + 1, std::memory_order_relaxed);
+    std::atomic_thread_fence(std::memory_order_release);
+    mIndex[partition * PARTITION_INDEX_FIELDS + field].store(value, std::memory_order_relaxed);
+    mSequence.store(sequence + 2, std::memory_order_release);
+}
+
+int32_t PartitionIndexTable::get(int partition, int field) const {
+    return mIndex[partition * PARTITION_INDEX_FIELDS + field].load(std::memory_order_relaxed);
+}
+
+void PartitionIndexTable::snapshot(int32_t *dst) const {
+    while (true) {
+        uint32_t before = mSequence.load(std::memory_order_acquire);
+        if (before & 1u) {
+            continue;
+        }
+        for (int i = 0; i < kSize; i++) {
+            dst[i] = mIndex[i].load(std::memory_order_relaxed);
+        }
+        std::atomic_thread_fence(std::memory_order_acquire);
+        if (mSequence.load(std::memory_order_relaxed) == before) {
+            return;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+#ifndef PARTITIONINDEXTABLE_H
+#define PARTITIONINDEXTABLE_H
+
+#include <atomic>
+#include <cstdint>
+
+const int MAX_SUPPORTED_PARTITIONS = 32;
+
+// Number of boundaries of each partition, indexed by PARTITION_STATUS_*: handshake start,
+// handshake end and signal end.
+const int PARTITION_INDEX_FIELDS = 3;
+
+// Partition boundaries written live by the audio thread, other threads read consistent
+// snapshots of the whole table through a sequence counter. The audio thread is the only writer
+// and never waits for readers.
+class PartitionIndexTable {
+public:
+    PartitionIndexTable();
+
+    // Audio thread only.
+    void set(int partition, int field, int32_t value);
+
+    // Audio thread only, it sees its own writes.
+    int32_t get(int partition, int field) const;
+
+    // Copy all boundaries to dst, partition i field f goes to dst[i * PARTITION_INDEX_FIELDS + f].
+    // Retries while the audio thread is writing, which is a few stores long.
+    void snapshot(int32_t *dst) const;
+
+private:
+    static const int kSize = MAX_SUPPORTED_PARTITIONS * PARTITION_INDEX_FIELDS;
+
+    // Odd while a write is in progress.
+    std::atomic<uint32_t> mSequence;
+    std::atomic<int32_t> mIndex[kSize];
+};
+
+
+#endif //PARTITIONINDEXTABLE_H
@@ -0,0 +1,88 @@
+#include <cmath>
+
+#include "PolyphaseResampler.h"
+
+static int gcd(int a, int b) {
+    while (b != 0) {
+        int t = a % b;
+        a = b;
+        b = t;
+    }
+    return a;
+}
+
+PolyphaseResampler::PolyphaseResampler(int sourceRate, int targetRate) {
+    int divisor = gcd(sourceRate, targetRate);
+    mSourceStep = sourceRate / divisor;
+    mTargetStep = targetRate / divisor;
+    // Cut off at the lower Nyquist frequency, relative to the source rate.
+    double cutoff = targetRate < sourceRate ? static_cast<double>(targetRate) / sourceRate : 1.0;
+    mHalfTaps = static_cast<int>(std::ceil(kHalfTaps / cutoff));
+    int numOfTaps = 2 * mHalfTaps;
+    mCoefficients.resize(static_cast<size_t>(kNumPhases * numOfTaps));
+    for (int p = 0; p < kNumPhases; p++) {
+        double fraction = static_cast<double>(p) / kNumPhases;
+        float *row = mCoefficients.data() + p * numOfTaps;
+        double sum = 0;
+        for (int i = 0; i < numOfTaps; i++) {
+            // Distance from the output position to source sample index - mHalfTaps + 1 + i.
+            double t = i - mHalfTaps + 1 - fraction;
+            double x = M_PI * cutoff * t;
+            double sinc = t == 0 ? 1.0 : std::sin(x) / x;
+            double w = 0.42 + 0.5 * std::cos(M_PI * t / mHalfTaps)
+                       + 0.08 * std::cos(2 * M_PI * t / mHalfTaps);
+            row[i] = static_cast<float>(sinc * w);
+            sum += row[i];
+        }
+        // Unity gain at DC, so long runs keep their exact level.
+        for (int i = 0; i < numOfTaps; i++) {
+            row[i] = static_cast<float>(row[i] / sum);
+        }
+    }
+}
+
+void PolyphaseResampler::resample(const int16_t *source, int sourceSize, int16_t *output,
+                                  int outputSize) const {
+    if (sourceSize <= 0) {
+        return;
+    }
+    int numOfTaps = 2 * mHalfTaps;
+    // Source position of the current output sample is index + remainder / mTargetStep.
+    int index = 0;
+    int remainder = 0;
+    for (int j = 0; j < outputSize; j++) {
+        int phase = static_cast<int>(static_cast<int64_t>(remainder) * kNumPhases / mTargetStep);
+        const float *row = mCoefficients.data() + phase * numOfTaps;
+        int first = index - mHalfTaps + 1;
+        float acc = 0;
+        if (first >= 0 && first + numOfTaps <= sourceSize) {
+            const int16_t *s = source + first;
+            for (int i = 0; i < numOfTaps; i++) {
+                acc += row[i] * s[i];
+            }
+        } else {
+            for (int i = 0; i < numOfTaps; i++) {
+                int k = first + i;
+                k = k < 0 ? 0 : (k >= sourceSize ? sourceSize - 1 : k);
+                acc += row[i] * source[k];
+            }
+        }
+        // Square waves ring a little past full scale near edges, so clip.
+        long value = std::lround(acc);
+        output[j] = static_cast<int16_t>(value > INT16_MAX ? INT16_MAX
+                                                          : (value < INT16_MIN ? INT16_MIN
+                                                                               : value));
+        remainder += mSourceStep;
+        while (remainder >= mTargetStep) {
+            remainder -= mTargetStep;
+            index++;
+        }
+    }
+}
+
+void resampleNearest(const int16_t *source, int sourceSize, int16_t *output, int outputSize,
+                     int sourceRate, int targetRate) {
+    for (int j = 0; j < outputSize; j++) {
+        output[j] = source[static_cast<int64_t>(j) * sourceRate / targetRate];
+    }
+}
@@ -0,0 +1,42 @@
+#ifndef POLYPHASERESAMPLER_H
+#define POLYPHASERESAMPLER_H
+
+#include <cstdint>
+#include <vector>
+
+// Band-limited resampler, a Blackman windowed sinc filter precomputed for kNumPhases fractional
+// positions. The source position of each output sample is tracked with an integer accumulator
+// over the reduced rate ratio, so it never drifts and edges land within 1 / kNumPhases of a
+// source sample of their exact time, instead of up to one sample off with nearest neighbour.
+class PolyphaseResampler {
+public:
+    PolyphaseResampler(int sourceRate, int targetRate);
+
+    // Write outputSize samples of source resampled to output. Samples before the start and after
+    // the end of source are taken as its first and last sample.
+    void resample(const int16_t *source, int sourceSize, int16_t *output,
+                  int outputSize) const;
+
+private:
+    static const int kNumPhases = 256;
+    // Taps on each side of the output position, when upsampling.
+    static const int kHalfTaps = 8;
+
+    // Rate ratio reduced by the greatest common divisor, each output sample moves the source
+    // position by mSourceStep / mTargetStep samples.
+    int mSourceStep;
+    int mTargetStep;
+    int mHalfTaps;
+    // kNumPhases rows of 2 * mHalfTaps coefficients, row p is for fractional position
+    // p / kNumPhases.
+    std::vector<float> mCoefficients;
+};
+
+
+// Nearest neighbour resampling, each output sample takes the source sample at or before it.
+// Cheaper, but edges move by up to one source sample.
+void resampleNearest(const int16_t *source, int sourceSize, int16_t *output, int outputSize,
+                     int sourceRate, int targetRate);
+
+
+#endif //POLYPHASERESAMPLER_H
@@ -0,0 +1,40 @@
+#include "ResampleCache.h"
+
+ResampleCache &ResampleCache::getInstance() {
+    static ResampleCache instance;
+    return instance;
+}
+
+std::shared_ptr<const std::vector<int16_t>>
+ResampleCache::get(int key, int sourceRate, int outputRate, int resampler) {
+    std::lock_guard<std::mutex> lock(mLock);
+    for (auto it = mEntries.begin(); it != mEntries.end(); ++it) {
+        if (it->key == key && it->sourceRate == sourceRate && it->outputRate == outputRate
+            && it->resampler == resampler) {
+            mEntries.splice(mEntries.begin(), mEntries, it);
+            mHitCount++;
+            return mEntries.front().frames;
+        }
+    }
+    mMissCount++;
+    return nullptr;
+}
+
+void ResampleCache::put(int key, int sourceRate, int outputRate, int resampler,
+                        std::shared_ptr<const std::vector<int16_t>> frames) {
+    std::lock_guard<std::mutex> lock(mLock);
+    mEntries.push_front({key, sourceRate, outputRate, resampler, std::move(frames)});
+    while (mEntries.size() > kMaxEntries) {
+        mEntries.pop_back();
+    }
+}
+
+int64_t ResampleCache::getHitCount() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mHitCount;
+}
+
+int64_t ResampleCache::getMissCount() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mMissCount;
+}
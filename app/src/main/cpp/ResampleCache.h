@@ -0,0 +1,48 @@
+#ifndef RESAMPLECACHE_H
+#define RESAMPLECACHE_H
+
+#include <cstdint>
+#include <list>
+#include <memory>
+#include <mutex>
+#include <utility>
+#include <vector>
+
+// LRU cache of resampled partitions shared by all engine instances, keyed by the partition key
+// from Java (which identifies encoder, word and shaping settings), source rate, output rate and
+// resampler.
+class ResampleCache {
+public:
+    static ResampleCache &getInstance();
+
+    // Returns nullptr on miss.
+    std::shared_ptr<const std::vector<int16_t>> get(int key, int sourceRate, int outputRate,
+                                                    int resampler);
+
+    void put(int key, int sourceRate, int outputRate, int resampler,
+             std::shared_ptr<const std::vector<int16_t>> frames);
+
+    int64_t getHitCount();
+
+    int64_t getMissCount();
+
+private:
+    static const int kMaxEntries = 64;
+
+    struct Entry {
+        int key;
+        int sourceRate;
+        int outputRate;
+        int resampler;
+        std::shared_ptr<const std::vector<int16_t>> frames;
+    };
+
+    std::mutex mLock;
+    // Most recently used first.
+    std::list<Entry> mEntries;
+    int64_t mHitCount = 0;
+    int64_t mMissCount = 0;
+};
+
+
+#endif //RESAMPLECACHE_H
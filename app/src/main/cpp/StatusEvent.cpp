@@ -0,0 +1,45 @@
+#include <climits>
+#include <ctime>
+#include <linux/futex.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+
+#include "StatusEvent.h"
+
+StatusEvent::StatusEvent(int status) : mStatus(status), mSequence(0) {
+}
+
+int StatusEvent::get() const {
+    return mStatus.load();
+}
+
+void StatusEvent::set(int status) {
+    if (mStatus.exchange(status) != status) {
+        wakeAll();
+    }
+}
+
+void StatusEvent::wake() {
+    wakeAll();
+}
+
+void StatusEvent::wakeAll() {
+    mSequence.fetch_add(1);
+    syscall(SYS_futex, reinterpret_cast<int32_t *>(&mSequence), FUTEX_WAKE_PRIVATE, INT_MAX,
+            nullptr, nullptr, 0);
+}
+
+int StatusEvent::waitForChange(int status, int timeoutMs) {
+    // Read the sequence first, so a change after the status check makes the wait return at once.
+    int32_t sequence = mSequence.load();
+    int current = mStatus.load();
+    if (current != status || timeoutMs <= 0) {
+        return current;
+    }
+    struct timespec timeout;
+    timeout.tv_sec = timeoutMs / 1000;
+    timeout.tv_nsec = (timeoutMs % 1000) * 1000000L;
+    syscall(SYS_futex, reinterpret_cast<int32_t *>(&mSequence), FUTEX_WAIT_PRIVATE, sequence,
+            &timeout, nullptr, 0);
+    return mStatus.load();
+}
@@ -0,0 +1,34 @@
+#ifndef STATUSEVENT_H
+#define STATUSEVENT_H
+
+#include <atomic>
+#include <cstdint>
+
+// Engine status shared between the audio thread and threads waiting for it to change.
+// Setting it never blocks so it is safe on the audio thread, waiters sleep on a futex.
+class StatusEvent {
+public:
+    explicit StatusEvent(int status);
+
+    int get() const;
+
+    // Change the status and wake all waiters, setting the same status again does nothing.
+    void set(int status);
+
+    // Wake all waiters without changing the status, like when the user stops.
+    void wake();
+
+    // Block until the status is not status, wake is called or timeoutMs passes.
+    // Returns the status after waking up.
+    int waitForChange(int status, int timeoutMs);
+
+private:
+    std::atomic<int> mStatus;
+    // Bumped on every set and wake, this is the futex word waiters sleep on.
+    std::atomic<int32_t> mSequence;
+
+    void wakeAll();
+};
+
+
+#endif //STATUSEVENT_H
@@ -0,0 +1,171 @@
+#include <unistd.h>
+
+#include "AudioEngine.h"
+#include "OboeDebug.h"
+#include "StreamHost.h"
+
+StreamHost &StreamHost::getInstance() {
+    static StreamHost instance;
+    return instance;
+}
+
+AudioStream *StreamHost::openStream(Direction direction) {
+    AudioStreamBuilder builder;
+    builder.setCallback(this);
+    builder.setPerformanceMode(PerformanceMode::LowLatency);
+    //builder.setSharingMode(SharingMode::Exclusive);
+    builder.setDirection(direction);
+    builder.setChannelCount(1);
+    builder.setFormat(AudioFormat::I16);
+    AudioStream *stream = nullptr;
+    Result result = builder.openStream(&stream);
+    if (result != Result::OK) {
+        LOGE("Failed to open stream. Error: %s", convertToText(result));
+        return nullptr;
+    }
+    int channelCount = stream->getChannelCount();
+    if (channelCount != 1) {
+        LOGW("Requested %d channels but received %d", 1, channelCount);
+        closeStream(stream);
+        return nullptr;
+    }
+    // Set the buffer size to the burst size - this will give us the minimum possible latency
+    stream->setBufferSizeInFrames(stream->getFramesPerBurst());
+    return stream;
+}
+
+void StreamHost::closeStream(AudioStream *&stream) {
+    if (stream == nullptr) {
+        return;
+    }
+    Result result = stream->requestStop();
+    if (result != Result::OK) {
+        LOGE("Error stopping stream. %s", convertToText(result));
+    }
+    result = stream->close();
+    if (result != Result::OK) {
+        LOGE("Error closing stream. %s", convertToText(result));
+    }
+    delete stream;
+    stream = nullptr;
+}
+
+bool StreamHost::open() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return openLocked();
+}
+
+bool StreamHost::openIfWanted() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mWanted && openLocked();
+}
+
+bool StreamHost::openLocked() {
+    if (mDisconnected) {
+        LOGW("Streams were disconnected, reopening");
+        closeStream(mOutputStream);
+        closeStream(mInputStream);
+        mDisconnected = false;
+    }
+    if (mOutputStream != nullptr && mInputStream != nullptr) {
+        return true;
+    }
+    LOGD("Opening streams");
+    mOutputStream = openStream(Direction::Output);
+    if (mOutputStream == nullptr) {
+        return false;
+    }
+    mOutputRate = mOutputStream->getSampleRate();
+    mOutputFramesPerBurst = mOutputStream->getFramesPerBurst();
+    mInputStream = openStream(Direction::Input);
+    if (mInputStream == nullptr) {
+        closeStream(mOutputStream);
+        return false;
+    }
+    mInputRate = mInputStream->getSampleRate();
+    mOutputStream->requestStart();
+    mInputStream->requestStart();
+    return true;
+}
+
+void StreamHost::setWanted(bool wanted) {
+    std::lock_guard<std::mutex> lock(mLock);
+    mWanted = wanted;
+    closeIfUnwanted();
+}
+
+void StreamHost::closeIfUnwanted() {
+    if (mWanted || mSession != nullptr) {
+        return;
+    }
+    if (mOutputStream != nullptr || mInputStream != nullptr) {
+        LOGD("Closing streams");
+    }
+    closeStream(mInputStream);
+    closeStream(mOutputStream);
+}
+
+int StreamHost::getInputRate() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mInputRate;
+}
+
+int StreamHost::getOutputRate() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mOutputRate;
+}
+
+int StreamHost::getOutputFramesPerBurst() {
+    std::lock_guard<std::mutex> lock(mLock);
+    return mOutputFramesPerBurst;
+}
+
+void StreamHost::arm(AudioEngine *session) {
+    std::lock_guard<std::mutex> lock(mLock);
+    AudioEngine *previous = mSession.exchange(session);
+    if (previous != nullptr && previous != session) {
+        // Its own disarm will not find it armed, so it must not be freed before this returns.
+        LOGW("Replacing a session that is still armed");
+        waitForCallbacks();
+    }
+}
+
+void StreamHost::disarm(AudioEngine *session) {
+    std::lock_guard<std::mutex> lock(mLock);
+    AudioEngine *expected = session;
+    if (mSession.compare_exchange_strong(expected, nullptr)) {
+        waitForCallbacks();
+    }
+    closeIfUnwanted();
+}
+
+void StreamHost::waitForCallbacks() {
+    // A callback that got the old session counts itself in before reading it, so once this is
+    // 0 no callback can still be using it.
+    while (mCallbacksInFlight > 0) {
+        usleep(500);
+    }
+}
+
+DataCallbackResult
+StreamHost::onAudioReady(AudioStream *oboeStream, void *audioData, int32_t numFrames) {
+    mCallbacksInFlight++;
+    AudioEngine *session = mSession;
+    bool isInput = oboeStream->getDirection() == Direction::Input;
+    if (session == nullptr) {
+        if (!isInput) {
+            memset(audioData, 0, sizeof(int16_t) * numFrames);
+        }
+    } else if (isInput) {
+        session->onInputReady(static_cast<int16_t *>(audioData), numFrames);
+    } else {
+        session->onOutputReady(static_cast<int16_t *>(audioData), numFrames);
+    }
+    mCallbacksInFlight--;
+    return DataCallbackResult::Continue;
+}
+
+void StreamHost::onErrorAfterClose(AudioStream *oboeStream, Result error) {
+    LOGE("Stream closed with error %s", convertToText(error));
+    mDisconnected = true;
+}
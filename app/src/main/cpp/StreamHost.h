@@ -0,0 +1,76 @@
+#ifndef STREAMHOST_H
+#define STREAMHOST_H
+
+#include <oboe/Oboe.h>
+#include <atomic>
+#include <mutex>
+
+using namespace oboe;
+
+class AudioEngine;
+
+// Owns the input and output streams, which stay open across exchanges. Each exchange is an
+// AudioEngine session armed here, callbacks go to the armed session and output is silent while
+// none is armed. Arming is a pointer swap, so an exchange starts on the next burst.
+class StreamHost : public AudioStreamCallback {
+public:
+    static StreamHost &getInstance();
+
+    // Open and start both streams unless they are running already. Returns false on failure.
+    bool open();
+
+    // Like open, but returns false without opening them while they are not wanted.
+    bool openIfWanted();
+
+    // Whether the streams stay open between sessions, false while the app is in background.
+    // Clearing it closes them now if no session is armed, else when the session is disarmed.
+    void setWanted(bool wanted);
+
+    int getInputRate();
+
+    int getOutputRate();
+
+    int getOutputFramesPerBurst();
+
+    // Route callbacks to session from the next burst on. A session still armed is replaced, and
+    // this returns once no callback uses it any more.
+    void arm(AudioEngine *session);
+
+    // Stop routing callbacks to session if it is armed. Returns once no callback uses it, with
+    // the streams closed if they are not wanted.
+    void disarm(AudioEngine *session);
+
+    DataCallbackResult
+    onAudioReady(AudioStream *oboeStream, void *audioData, int32_t numFrames) override;
+
+    void onErrorAfterClose(AudioStream *oboeStream, Result error) override;
+
+private:
+    std::mutex mLock;
+    AudioStream *mOutputStream = nullptr;
+    AudioStream *mInputStream = nullptr;
+    int mInputRate = 0;
+    int mOutputRate = 0;
+    int mOutputFramesPerBurst = 0;
+    bool mWanted = false;
+    // Set by oboe when a stream is disconnected, like when the cable is unplugged.
+    std::atomic<bool> mDisconnected{false};
+
+    std::atomic<AudioEngine *> mSession{nullptr};
+    std::atomic<int> mCallbacksInFlight{0};
+
+    StreamHost() = default;
+
+    AudioStream *openStream(Direction direction);
+
+    void closeStream(AudioStream *&stream);
+
+    bool openLocked();
+
+    void closeIfUnwanted();
+
+    void waitForCallbacks();
+};
+
+
+#endif //STREAMHOST_H
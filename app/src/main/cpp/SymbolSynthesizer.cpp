@@ -0,0 +1,64 @@
+#include <algorithm>
+#include <cstring>
+
+#include "SymbolSynthesizer.h"
+
+constexpr int64_t kMicrosecondsInSecond = 1000000;
+
+SymbolSynthesizer::SymbolSynthesizer(const SymbolTiming &timing, std::vector<uint16_t> words,
+                                     const WaveformShaper &shaper, int outputRate)
+        : mTiming(timing), mWords(std::move(words)), mShaper(shaper), mOutputRate(outputRate) {
+}
+
+int SymbolSynthesizer::getNumOfPartitions() const {
+    return static_cast<int>(mWords.size());
+}
+
+void SymbolSynthesizer::getRunEnds(uint16_t word, int32_t *runEnds) const {
+    int64_t timeUs = 0;
+    int run = 0;
+    auto endRun = [&](int32_t lengthUs) {
+        timeUs += lengthUs;
+        runEnds[run++] = static_cast<int32_t>(
+                (timeUs * mOutputRate + kMicrosecondsInSecond / 2) / kMicrosecondsInSecond);
+    };
+    endRun(mTiming.handshakeUs);
+    endRun(mTiming.startHighUs);
+    endRun(mTiming.startLowUs);
+    for (int bit = 0; bit < kBitsPerWord; bit++) {
+        bool one = ((word >> bit) & 1) != 0;
+        endRun(one ? mTiming.oneHighUs : mTiming.zeroHighUs);
+        endRun(one ? mTiming.oneLowUs : mTiming.zeroLowUs);
+    }
+}
+
+int32_t SymbolSynthesizer::getPartitionSize(int partition) const {
+    int32_t runEnds[kNumOfRuns];
+    getRunEnds(mWords[partition], runEnds);
+    return runEnds[kNumOfRuns - 1];
+}
+
+int32_t SymbolSynthesizer::getHandshakeSize() const {
+    int32_t runEnds[kNumOfRuns];
+    getRunEnds(0, runEnds);
+    return runEnds[0];
+}
+
+void SymbolSynthesizer::render(int partition, int32_t frameIndex, int16_t *dst,
+                               int32_t numFrames) const {
+    int32_t runEnds[kNumOfRuns];
+    getRunEnds(mWords[partition], runEnds);
+    // First run that has not ended at frameIndex, runs alternate from the low handshake.
+    int run = static_cast<int>(std::upper_bound(runEnds, runEnds + kNumOfRuns, frameIndex)
+                               - runEnds);
+    int32_t written = 0;
+    while (written < numFrames && run < kNumOfRuns) {
+        int32_t runStart = run == 0 ? 0 : runEnds[run - 1];
+        int32_t from = frameIndex + written - runStart;
+        int32_t length = std::min(numFrames - written, runEnds[run] - runStart - from);
+        mShaper.renderRun(run % 2 == 1, from, length, dst + written);
+        written += length;
+        run++;
+    }
+    memset(dst + written, 0, (numFrames - written) * sizeof(int16_t));
+}
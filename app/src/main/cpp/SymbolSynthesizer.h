@@ -0,0 +1,58 @@
+#ifndef SYMBOLSYNTHESIZER_H
+#define SYMBOLSYNTHESIZER_H
+
+#include <cstdint>
+#include <vector>
+
+#include "WaveformShaper.h"
+
+// Number of fields of SymbolTiming, in the order they are passed from Java.
+const int SYMBOL_TIMING_FIELDS = 7;
+
+// Symbol timings of a toy family in microseconds. A partition is a low handshake, the start
+// signal (a high then a low run) and 16 messages of a high then a low run, LSB first.
+struct SymbolTiming {
+    int32_t handshakeUs = 0;
+    int32_t startHighUs = 0;
+    int32_t startLowUs = 0;
+    int32_t zeroHighUs = 0;
+    int32_t zeroLowUs = 0;
+    int32_t oneHighUs = 0;
+    int32_t oneLowUs = 0;
+};
+
+// Renders output partitions straight from 16 bits words, so only the words are kept instead of
+// the samples. Run boundaries are worked out from the absolute time of each edge, so they land
+// on the nearest output sample at any rate and never drift. SymbolSynthesisTest has a Java copy
+// checked against the encoders, keep them in sync.
+class SymbolSynthesizer {
+public:
+    SymbolSynthesizer(const SymbolTiming &timing, std::vector<uint16_t> words,
+                      const WaveformShaper &shaper, int outputRate);
+
+    int getNumOfPartitions() const;
+
+    int32_t getPartitionSize(int partition) const;
+
+    // Frames of the low handshake at the start of every partition.
+    int32_t getHandshakeSize() const;
+
+    // Write numFrames samples of partition from frameIndex to dst, silence after its end.
+    void render(int partition, int32_t frameIndex, int16_t *dst, int32_t numFrames) const;
+
+private:
+    static const int kBitsPerWord = 16;
+    // Handshake, start signal high and low, then a high and a low run per message.
+    static const int kNumOfRuns = 3 + 2 * kBitsPerWord;
+
+    SymbolTiming mTiming;
+    std::vector<uint16_t> mWords;
+    WaveformShaper mShaper;
+    int mOutputRate;
+
+    // Frame index where each run of word ends, runEnds must have kNumOfRuns entries.
+    void getRunEnds(uint16_t word, int32_t *runEnds) const;
+};
+
+
+#endif //SYMBOLSYNTHESIZER_H
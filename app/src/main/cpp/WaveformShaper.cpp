@@ -0,0 +1,105 @@
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+#include <limits>
+
+#include "WaveformShaper.h"
+
+// Level of one sample step, and the int16_t limits as levels.
+constexpr int64_t kOne = int64_t{1} << WaveformShaper::kDeltaFractionBits;
+constexpr int64_t kShortMin = std::numeric_limits<int16_t>::min() * kOne;
+constexpr int64_t kShortMax = std::numeric_limits<int16_t>::max() * kOne;
+
+WaveformShaper::WaveformShaper(int16_t highLevel, int16_t lowLevel, float initRatio,
+                               int64_t deltaQ16, bool ramp)
+        : mHighLevel(highLevel), mLowLevel(lowLevel), mInitRatio(initRatio), mDelta(deltaQ16) {
+    if (ramp) {
+        mHighCurve = buildCurve(true, &mHighCurveEnd);
+        mLowCurve = buildCurve(false, &mLowCurveEnd);
+        mHighSettled = getNextLevel(mHighCurveEnd, true) == mHighCurveEnd;
+        mLowSettled = getNextLevel(mLowCurveEnd, false) == mLowCurveEnd;
+    } else {
+        mHighCurve.push_back(highLevel);
+        mLowCurve.push_back(lowLevel);
+        mHighCurveEnd = highLevel * kOne;
+        mLowCurveEnd = lowLevel * kOne;
+        mHighSettled = true;
+        mLowSettled = true;
+    }
+}
+
+int64_t WaveformShaper::scaleDelta(int delta, int fromRate, int toRate) {
+    // Moving more than the whole range in one sample is the same as moving all of it.
+    double scaled = std::min(static_cast<double>(delta) * fromRate / toRate, 65535.0);
+    return std::llround(scaled * kOne);
+}
+
+int64_t WaveformShaper::getFirstLevel(bool high) const {
+    int32_t first = static_cast<int32_t>((high ? mHighLevel : mLowLevel) * mInitRatio);
+    return static_cast<int16_t>(first) * kOne;
+}
+
+// Levels move towards the minimum on high runs and towards the maximum on low runs, which is
+// how the output is wired with a transistor.
+int64_t WaveformShaper::getNextLevel(int64_t level, bool high) const {
+    if (high) {
+        if (level > kShortMin + mDelta) {
+            return level - mDelta;
+        }
+    } else {
+        if (level < kShortMax - mDelta) {
+            return level + mDelta;
+        }
+    }
+    return level;
+}
+
+// Nearest sample, levels stay between the int16_t limits so this can not overflow.
+int16_t WaveformShaper::toSample(int64_t level) {
+    return static_cast<int16_t>((level + kOne / 2) >> kDeltaFractionBits);
+}
+
+std::vector<int16_t> WaveformShaper::buildCurve(bool high, int64_t *end) const {
+    std::vector<int16_t> curve;
+    int64_t level = getFirstLevel(high);
+    curve.push_back(toSample(level));
+    while (static_cast<int>(curve.size()) < kMaxCurveSize) {
+        int64_t next = getNextLevel(level, high);
+        if (next == level) {
+            break;
+        }
+        level = next;
+        curve.push_back(toSample(level));
+    }
+    *end = level;
+    return curve;
+}
+
+void WaveformShaper::renderRun(bool high, int32_t length, int16_t *dst) const {
+    renderRun(high, 0, length, dst);
+}
+
+void WaveformShaper::renderRun(bool high, int32_t from, int32_t length, int16_t *dst) const {
+    const std::vector<int16_t> &curve = high ? mHighCurve : mLowCurve;
+    int32_t curveSize = static_cast<int32_t>(curve.size());
+    int32_t fromCurve = from < curveSize ? std::min(length, curveSize - from) : 0;
+    if (fromCurve > 0) {
+        memcpy(dst, curve.data() + from, fromCurve * sizeof(int16_t));
+    }
+    if (fromCurve == length) {
+        return;
+    }
+    if (high ? mHighSettled : mLowSettled) {
+        std::fill(dst + fromCurve, dst + length, curve.back());
+        return;
+    }
+    // Continue the curve from its last entry up to the sample before the first one we write.
+    int64_t level = high ? mHighCurveEnd : mLowCurveEnd;
+    for (int32_t i = curveSize; i < from + fromCurve; i++) {
+        level = getNextLevel(level, high);
+    }
+    for (int32_t i = fromCurve; i < length; i++) {
+        level = getNextLevel(level, high);
+        dst[i] = toSample(level);
+    }
+}
@@ -0,0 +1,57 @@
+#ifndef WAVEFORMSHAPER_H
+#define WAVEFORMSHAPER_H
+
+#include <cstdint>
+#include <vector>
+
+// Native version of com.digibattle.app.signal.WaveformShaper, keep them in sync.
+// The output level of a run starts at initRatio * level and moves delta per sample towards the
+// full level. Both curves are worked out once up to the point they settle, so rendering a run is
+// a table copy plus a fill.
+// Unlike the Java version, delta has kDeltaFractionBits fractional bits so the slope stays the
+// same at any output rate. A whole delta gives the same samples as the Java version.
+class WaveformShaper {
+public:
+    static const int kDeltaFractionBits = 16;
+
+    WaveformShaper(int16_t highLevel, int16_t lowLevel, float initRatio, int64_t deltaQ16,
+                   bool ramp);
+
+    // Delta per sample at toRate with the slope of delta per sample at fromRate, with
+    // kDeltaFractionBits fractional bits.
+    static int64_t scaleDelta(int delta, int fromRate, int toRate);
+
+    // Write one run of length samples to dst.
+    void renderRun(bool high, int32_t length, int16_t *dst) const;
+
+    // Write length samples of a run to dst, starting from sample from of the run.
+    void renderRun(bool high, int32_t from, int32_t length, int16_t *dst) const;
+
+private:
+    // Longest curve kept in a table, longer unsettled curves are continued sample by sample.
+    static const int kMaxCurveSize = 1 << 16;
+
+    int16_t mHighLevel;
+    int16_t mLowLevel;
+    float mInitRatio;
+    int64_t mDelta;
+    // Run samples until the level settles, the last entry is the settled level if settled.
+    std::vector<int16_t> mHighCurve;
+    std::vector<int16_t> mLowCurve;
+    // Exact level of the last entry, with kDeltaFractionBits fractional bits.
+    int64_t mHighCurveEnd;
+    int64_t mLowCurveEnd;
+    bool mHighSettled;
+    bool mLowSettled;
+
+    int64_t getFirstLevel(bool high) const;
+
+    int64_t getNextLevel(int64_t level, bool high) const;
+
+    static int16_t toSample(int64_t level);
+
+    std::vector<int16_t> buildCurve(bool high, int64_t *end) const;
+};
+
+
+#endif //WAVEFORMSHAPER_H
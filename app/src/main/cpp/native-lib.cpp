@@ -15,143 +15,368 @@
  */
 
 #include <jni.h>
+#include <map>
+#include <mutex>
 #include <string>
 
 #include "AudioEngine.h"
 #include "PartitionState.h"
 #include "OboeDebug.h"
+#include "ResampleCache.h"
+#include "StreamHost.h"
 
-std::shared_ptr<AudioEngine> engine;
+// Replaced by the exchange thread while waiters on other threads read it, so it is only
+// accessed through getEngine and setEngine. Callers keep the copy they got, stopEngine may drop
+// the engine meanwhile.
+static std::shared_ptr<AudioEngine> engine;
+
+static std::shared_ptr<AudioEngine> getEngine() {
+    return std::atomic_load(&engine);
+}
+
+static void setEngine(std::shared_ptr<AudioEngine> value) {
+    std::atomic_store(&engine, std::move(value));
+}
+
+// Recordings handed to Java as direct buffers, keyed by address. They outlive the engine that
+// recorded them and are freed by releaseReceivedSignal.
+std::mutex recordsLock;
+std::map<void *, std::unique_ptr<std::vector<int16_t>>> records;
+
+// Copy frames from Java, offsets and keys as in FrameBuffer. Returns false if they do not match.
+static bool readPartitionedFrames(JNIEnv *env, jshortArray frames, jintArray frameOffsets,
+                                  jintArray frameKeys, PartitionedFrames *target) {
+    jsize numOfOffsets = env->GetArrayLength(frameOffsets);
+    if (numOfOffsets < 1 || numOfOffsets - 1 > MAX_SUPPORTED_PARTITIONS) {
+        LOGE("Bad number of partitions: %d", numOfOffsets - 1);
+        return false;
+    }
+    target->offsets.resize(numOfOffsets);
+    env->GetIntArrayRegion(frameOffsets, 0, numOfOffsets, target->offsets.data());
+    jsize len = env->GetArrayLength(frames);
+    if (target->offsets[0] != 0 || target->offsets[numOfOffsets - 1] != len) {
+        LOGE("Offsets do not cover %d frames", len);
+        return false;
+    }
+    if (env->GetArrayLength(frameKeys) != numOfOffsets - 1) {
+        LOGE("Bad number of partition keys");
+        return false;
+    }
+    target->keys.resize(numOfOffsets - 1);
+    env->GetIntArrayRegion(frameKeys, 0, numOfOffsets - 1, target->keys.data());
+    // All partitions in one transfer.
+    target->samples.resize(len);
+    env->GetShortArrayRegion(frames, 0, len, target->samples.data());
+    return true;
+}
+
+// Copy SYMBOL_TIMING_FIELDS timings from Java. Returns false if the array has another size.
+static bool readSymbolTiming(JNIEnv *env, jintArray timingUs, SymbolTiming *target) {
+    if (env->GetArrayLength(timingUs) != SYMBOL_TIMING_FIELDS) {
+        return false;
+    }
+    jint timing[SYMBOL_TIMING_FIELDS];
+    env->GetIntArrayRegion(timingUs, 0, SYMBOL_TIMING_FIELDS, timing);
+    target->handshakeUs = timing[0];
+    target->startHighUs = timing[1];
+    target->startLowUs = timing[2];
+    target->zeroHighUs = timing[3];
+    target->zeroLowUs = timing[4];
+    target->oneHighUs = timing[5];
+    target->oneLowUs = timing[6];
+    return true;
+}
 
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_digibattle_app_NativeAudioEngine_startEngine(JNIEnv *env, jobject instance) {
-
-    if (engine == nullptr) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
         LOGE("Engine is not inited");
         return;
     }
-    engine->start();
+    current->start();
 }
 
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_digibattle_app_NativeAudioEngine_stopEngine(JNIEnv *env, jobject instance) {
-
-    if (engine == nullptr) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
         LOGE("Engine is not inited");
         return;
     }
-    engine->stop();
-    engine = nullptr;
+    current->stop();
+    setEngine(nullptr);
 
 }
 
 
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_digibattle_app_NativeAudioEngine_openStreams(JNIEnv *env, jobject instance) {
+    return static_cast<jboolean>(StreamHost::getInstance().openIfWanted());
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getInputRate(JNIEnv *env, jobject instance) {
+    return StreamHost::getInstance().getInputRate();
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getOutputRate(JNIEnv *env, jobject instance) {
+    return StreamHost::getInstance().getOutputRate();
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getOutputFramesPerBurst(JNIEnv *env,
+                                                                  jobject instance) {
+    return StreamHost::getInstance().getOutputFramesPerBurst();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_digibattle_app_NativeAudioEngine_setStreamsWanted(JNIEnv *env, jobject instance,
+                                                           jboolean wanted) {
+    StreamHost::getInstance().setWanted(wanted);
+}
+
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_digibattle_app_NativeAudioEngine_initEngine(JNIEnv *env, jobject instance,
                                                      jint expectedRTTms,
                                                      jint expectedMsgLenMs,
-                                                     jobjectArray outputFrames,
+                                                     jshortArray outputFrames,
+                                                     jintArray outputFrameOffsets,
+                                                     jintArray outputFrameKeys,
                                                      jint outputRate,
                                                      jint inputSignalStartThreshold,
                                                      jboolean asSender,
                                                      jint handshakeSize,
                                                      jint partitionStatusChangeThreshold,
-                                                     jboolean timeoutToFinish) {
+                                                     jboolean timeoutToFinish,
+                                                     jint resampler,
+                                                     jint captureRate) {
     LOGI("Engine init starts");
-    jsize len = env->GetArrayLength(outputFrames);
-    std::shared_ptr<Frame> targetOutputFrames[MAX_SUPPORTED_PARTITIONS];
-    for (int i = 0; i < len; i++) {
-        jboolean isCopy1;
-        jshortArray array = (jshortArray) env->GetObjectArrayElement(outputFrames, i);
-        int len2 = env->GetArrayLength(array);
-        targetOutputFrames[i] = std::make_shared<Frame>(len2);
-        jshort *srcArrayElems = env->GetShortArrayElements(array, &isCopy1);
-        memcpy(targetOutputFrames[i].get()->content, srcArrayElems, len2 * sizeof(int16_t));
-        if (isCopy1 == JNI_TRUE) {
-            env->ReleaseShortArrayElements(array, srcArrayElems, JNI_ABORT);
-        }
-    }
-    engine = std::make_shared<AudioEngine>(inputSignalStartThreshold, asSender, targetOutputFrames,
-                                           len, outputRate, handshakeSize,
-                                           partitionStatusChangeThreshold, timeoutToFinish,
-                                           expectedRTTms, expectedMsgLenMs);
+    PartitionedFrames targetOutputFrames;
+    if (!readPartitionedFrames(env, outputFrames, outputFrameOffsets, outputFrameKeys,
+                               &targetOutputFrames)) {
+        setEngine(nullptr);
+        return;
+    }
+    setEngine(std::make_shared<AudioEngine>(inputSignalStartThreshold, asSender,
+                                           std::move(targetOutputFrames), outputRate,
+                                           handshakeSize, partitionStatusChangeThreshold,
+                                           timeoutToFinish, expectedRTTms, expectedMsgLenMs,
+                                           resampler, captureRate));
     LOGI("Engine init done");
 }
 
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_digibattle_app_NativeAudioEngine_useSynthesizer(JNIEnv *env, jobject instance,
+                                                         jintArray words,
+                                                         jintArray timingUs,
+                                                         jshort highLevel,
+                                                         jshort lowLevel,
+                                                         jfloat initRatio,
+                                                         jint delta,
+                                                         jboolean ramp) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        LOGE("Engine is not inited");
+        return JNI_FALSE;
+    }
+    jsize numOfWords = env->GetArrayLength(words);
+    SymbolTiming symbolTiming;
+    if (numOfWords > MAX_SUPPORTED_PARTITIONS || !readSymbolTiming(env, timingUs, &symbolTiming)) {
+        LOGE("Bad synthesizer words or timing");
+        return JNI_FALSE;
+    }
+    std::vector<jint> wordValues(static_cast<size_t>(numOfWords));
+    env->GetIntArrayRegion(words, 0, numOfWords, wordValues.data());
+    std::vector<uint16_t> symbolWords(wordValues.begin(), wordValues.end());
+    current->useSynthesizer(symbolTiming, std::move(symbolWords), highLevel, lowLevel,
+                            initRatio, delta, ramp);
+    return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_digibattle_app_NativeAudioEngine_setSymbolTiming(JNIEnv *env, jobject instance,
+                                                          jintArray timingUs, jint rate,
+                                                          jint expectedMsgLenMs) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        LOGE("Engine is not inited");
+        return JNI_FALSE;
+    }
+    SymbolTiming symbolTiming;
+    if (!readSymbolTiming(env, timingUs, &symbolTiming)) {
+        LOGE("Bad symbol timing");
+        return JNI_FALSE;
+    }
+    return static_cast<jboolean>(current->setSymbolTiming(symbolTiming, rate,
+                                                          expectedMsgLenMs));
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getSymbolTimingPartition(JNIEnv *env,
+                                                                   jobject instance) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        return -1;
+    }
+    return current->getSymbolTimingPartition();
+}
+
 extern "C"
 JNIEXPORT jint JNICALL
 Java_com_digibattle_app_NativeAudioEngine_getStatus(JNIEnv *env, jobject instance) {
-    LOGI("Get status starts");
-    return engine->getStatus();
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        return STATUS_NOT_INITED;
+    }
+    return current->getStatus();
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_waitForStatusChange(JNIEnv *env, jobject instance,
+                                                              jint status, jint timeoutMs) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        LOGE("Engine is not inited");
+        return STATUS_NOT_INITED;
+    }
+    return current->waitForStatusChange(status, timeoutMs);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_digibattle_app_NativeAudioEngine_wakeStatusWaiters(JNIEnv *env, jobject instance) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current != nullptr) {
+        current->wakeStatusWaiters();
+    }
 }
 
 extern "C"
 JNIEXPORT jlong JNICALL
 Java_com_digibattle_app_NativeAudioEngine_getRTT(JNIEnv *env, jobject instance) {
     LOGI("Get RTT");
-    return engine->getRTT();
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        LOGE("Engine is not inited");
+        return 0;
+    }
+    return current->getRTT();
 }
 
 
 extern "C"
-JNIEXPORT jshortArray JNICALL
+JNIEXPORT jobject JNICALL
 Java_com_digibattle_app_NativeAudioEngine_getReceivedSignal(JNIEnv *env, jobject instance) {
-    if (engine == nullptr) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
         LOGE("Engine is not inited");
         return NULL;
     }
-    jshortArray result;
-    std::vector<int16_t> signals = engine->getRecordedSignal();
-    int size = signals.size();
-    result = env->NewShortArray(size);
+    std::unique_ptr<std::vector<int16_t>> record = current->takeRecordedSignal();
+    if (record->empty()) {
+        return NULL;
+    }
+    jobject result = env->NewDirectByteBuffer(record->data(),
+                                              record->size() * sizeof(int16_t));
     if (result == NULL) {
         return NULL; /* out of memory error thrown */
     }
-    int i;
-    // fill a temp structure to use to populate the java int array
-    jshort fill[size];
-    for (i = 0; i < size; i++) {
-        fill[i] = signals[i];
-    }
-    // move from the temp structure to the java structure
-    env->SetShortArrayRegion(result, 0, size, fill);
+    std::lock_guard<std::mutex> lock(recordsLock);
+    records[record->data()] = std::move(record);
     return result;
+}
 
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_digibattle_app_NativeAudioEngine_releaseReceivedSignal(JNIEnv *env, jobject instance,
+                                                                jobject signal) {
+    void *address = env->GetDirectBufferAddress(signal);
+    std::lock_guard<std::mutex> lock(recordsLock);
+    if (records.erase(address) == 0) {
+        LOGE("Unknown received signal %p", address);
+    }
 }
 
 
 extern "C"
 JNIEXPORT jint JNICALL
-Java_com_digibattle_app_NativeAudioEngine_getReceivedRate(JNIEnv *env, jobject instance) {
-    if (engine == nullptr) {
+Java_com_digibattle_app_NativeAudioEngine_readReceivedSignal(JNIEnv *env, jobject instance,
+                                                             jobject chunk) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
         LOGE("Engine is not inited");
         return 0;
     }
-    return engine->getRecordedRate();
+    int16_t *buffer = static_cast<int16_t *>(env->GetDirectBufferAddress(chunk));
+    jlong capacity = env->GetDirectBufferCapacity(chunk) / static_cast<jlong>(sizeof(int16_t));
+    if (buffer == nullptr || capacity <= 0) {
+        LOGE("Bad chunk buffer");
+        return 0;
+    }
+    return current->readRecordedSignal(buffer, static_cast<int32_t>(capacity));
 }
 
 
 extern "C"
-JNIEXPORT jintArray JNICALL
-Java_com_digibattle_app_NativeAudioEngine_getPartitionIndex(JNIEnv *env, jobject instance,
-                                                            jint partitionNumber) {
-    if (engine == nullptr) {
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getReceivedRate(JNIEnv *env, jobject instance) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
         LOGE("Engine is not inited");
-        return NULL;
+        return 0;
     }
-    jintArray result = env->NewIntArray(3);
-    if (result == NULL) {
-        return NULL;
+    return current->getRecordedRate();
+}
+
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_digibattle_app_NativeAudioEngine_snapshotPartitionIndex(JNIEnv *env, jobject instance,
+                                                                 jobject table) {
+    std::shared_ptr<AudioEngine> current = getEngine();
+    if (current == nullptr) {
+        LOGE("Engine is not inited");
+        return 0;
     }
-    int i;
-    int fill[3];
-    for (i = 0; i < 3; i++) {
-        fill[i] = engine->getPartitionIndex(partitionNumber, i);
+    const size_t kPartitionIndexTableBytes =
+            MAX_SUPPORTED_PARTITIONS * PARTITION_INDEX_FIELDS * sizeof(int32_t);
+    int32_t *dst = static_cast<int32_t *>(env->GetDirectBufferAddress(table));
+    jlong capacity = env->GetDirectBufferCapacity(table);
+    if (dst == nullptr ||
+        capacity < static_cast<jlong>(kPartitionIndexTableBytes)) {
+        LOGE("Bad partition index table buffer");
+        return 0;
     }
-    env->SetIntArrayRegion(result, 0, 3, fill);
-    return result;
+    current->snapshotPartitionIndex(dst);
+    return MAX_SUPPORTED_PARTITIONS;
+}
+
+
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getResampleCacheHitCount(JNIEnv *env,
+                                                                   jobject instance) {
+    return ResampleCache::getInstance().getHitCount();
 }
 
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_digibattle_app_NativeAudioEngine_getResampleCacheMissCount(JNIEnv *env,
+                                                                    jobject instance) {
+    return ResampleCache::getInstance().getMissCount();
+}
@@ -1,12 +1,23 @@
 package com.digibattle.app;
 
+import java.nio.ByteBuffer;
+
 public abstract class AudioEngine {
 
 
+    public static final int STATUS_NOT_INITED = -1;
     public static final int STATUS_PENDING_SIGNAL = 0;
     public static final int STATUS_PROCESSING_SIGNAL = 1;
     public static final int STATUS_FINISHED = 2;
 
+    // How output frames are resampled to the device rate, same as the native engine.
+    public static final int RESAMPLER_NEAREST = 0;
+    // Band-limited, keeps edge timing to a fraction of a sample.
+    public static final int RESAMPLER_POLYPHASE = 1;
+
+    // Entries of the timing array of useSynthesizer.
+    public static final int SYMBOL_TIMING_FIELDS = 7;
+
     // Stop sending / receiving signals.
     public abstract void stopEngine();
 
@@ -16,7 +27,11 @@ public abstract class AudioEngine {
     /**
      * @param expectedRTTms                  Expected RTT time in milliseconds.
      * @param expectedMsgLenMs               Expected message size in milliseconds.
-     * @param outputFrames                   Output frames in partitions.
+     * @param outputFrames                   Output frames of all partitions, back to back.
+     * @param outputFrameOffsets             Start index of each partition in outputFrames, plus
+     *                                       the total size as the last entry.
+     * @param outputFrameKeys                Content key of each partition for resample cache,
+     *                                       0 means no cache.
      * @param outputRate                     Output frames rate.
      * @param inputSignalStartThreshold      Threshold to trigger receiving data.
      * @param asSender                       True if I'm the sender.
@@ -24,24 +39,135 @@ public abstract class AudioEngine {
      * @param partitionStatusChangeThreshold Number of frames for same values to trigger
      *                                       partition change.
      * @param timeoutToFinish                Timeout after sending all signals in milliseconds.
+     * @param resampler                      One of RESAMPLER_*.
+     * @param captureRate                    Rate the input is decimated to while it is
+     *                                       recorded, 0 or a rate not below the input rate
+     *                                       records at the input rate. Decimated samples
+     *                                       are the high or low level most input samples
+     *                                       have, against inputSignalStartThreshold.
      */
-    public abstract void initEngine(int expectedRTTms, int expectedMsgLenMs, short[][] outputFrames,
-            int outputRate,
+    public abstract void initEngine(int expectedRTTms, int expectedMsgLenMs, short[] outputFrames,
+            int[] outputFrameOffsets, int[] outputFrameKeys, int outputRate,
             int inputSignalStartThreshold,
             boolean asSender, int handshakeSize, int partitionStatusChangeThreshold,
-            boolean timeoutToFinish);
+            boolean timeoutToFinish, int resampler, int captureRate);
+
+
+    /**
+     * Make the engine from the last initEngine synthesize its output from words, instead of
+     * the output frames, which can be empty then. Call before startEngine. The other parameters
+     * shape the output like WaveformShaper, with delta per sample at the output rate of
+     * initEngine.
+     *
+     * @param words    16 bits word of each partition, LSB goes out first.
+     * @param timingUs SYMBOL_TIMING_FIELDS symbol lengths in microseconds, see
+     *                 DigimonMessageEncoder.getSymbolTimingUs.
+     * @return false if the engine is not inited or the arguments are bad.
+     */
+    public abstract boolean useSynthesizer(int[] words, int[] timingUs, short highLevel,
+            short lowLevel, float initRatio, int delta, boolean ramp);
 
+    /**
+     * Switch a started exchange using the synthesizer to another toy family's timing, once the
+     * partner is detected. The engine keeps its words and shaping. It switches at once unless
+     * a partition is being sent past its handshake, then from the next partition. Only once
+     * per exchange.
+     *
+     * @param timingUs         Same as useSynthesizer, of the other family.
+     * @param rate             Encoder rate of the other family, delta is per sample at it.
+     * @param expectedMsgLenMs Message length of the other family, see initEngine.
+     * @return false if the engine does not synthesize or the timing is switched already.
+     */
+    public abstract boolean setSymbolTiming(int[] timingUs, int rate, int expectedMsgLenMs);
+
+    /**
+     * @return Index of the first of my partitions sent fully with the timing of
+     * setSymbolTiming, -1 until the engine switched.
+     */
+    public abstract int getSymbolTimingPartition();
 
     public abstract int getStatus();
 
+    /**
+     * Block until the status is not status, a partition ends, wakeStatusWaiters is called or
+     * timeoutMs passes.
+     *
+     * @return Status after waking up, STATUS_NOT_INITED if there is no session.
+     */
+    public abstract int waitForStatusChange(int status, int timeoutMs);
+
+    // Wake threads blocked in waitForStatusChange.
+    public abstract void wakeStatusWaiters();
+
     /**
      * Get round trip time in milliseconds.
      */
     public abstract long getRTT();
 
-    public abstract int[] getPartitionIndex(int partitionNumber);
+    // Partitions in the table of snapshotPartitionIndex, same as the native engine supports.
+    public static final int PARTITION_INDEX_TABLE_PARTITIONS = 32;
+    public static final int PARTITION_INDEX_FIELDS = 3;
+
+    /**
+     * Copy all partition boundaries as the audio thread sees them, during or after the session.
+     * The copy is consistent, it never mixes boundaries from before and after an update.
+     *
+     * @param table Direct buffer of at least PARTITION_INDEX_TABLE_PARTITIONS *
+     *              PARTITION_INDEX_FIELDS ints, field f of partition i goes to int
+     *              i * PARTITION_INDEX_FIELDS + f in native byte order.
+     * @return Number of partitions copied, 0 if there is no session.
+     */
+    public abstract int snapshotPartitionIndex(ByteBuffer table);
+
+    /**
+     * Take the recording out of the engine, which stops recording. The buffer points to native
+     * memory with samples in native byte order, it stays valid until releaseReceivedSignal.
+     *
+     * @return The recording, or null if nothing was recorded.
+     */
+    public abstract ByteBuffer getReceivedSignal();
+
+    /**
+     * Copy samples recorded since the last read into chunk while the exchange is still running,
+     * as many as fit. Only one thread may read.
+     *
+     * @param chunk Direct buffer, samples are written from index 0 in native byte order.
+     * @return Number of samples copied.
+     */
+    public abstract int readReceivedSignal(ByteBuffer chunk);
 
-    public abstract short[] getReceivedSignal();
+    // Free a recording got from getReceivedSignal, it must not be read afterwards.
+    public abstract void releaseReceivedSignal(ByteBuffer signal);
 
+    /**
+     * Rate of the received signal and its partition indexes, the capture rate of initEngine
+     * when the input is decimated.
+     */
     public abstract int getReceivedRate();
+
+    // Resampled frames cache statistics, across all sessions.
+    public abstract long getResampleCacheHitCount();
+
+    public abstract long getResampleCacheMissCount();
+
+    /**
+     * Open the audio streams kept open between sessions, if they are not open yet and they are
+     * wanted. The input stream records from the microphone for as long as they are open.
+     *
+     * @return true if the streams are open.
+     */
+    public abstract boolean openStreams();
+
+    // Device rates and output burst size of the open streams, 0 if they were never opened.
+    public abstract int getInputRate();
+
+    public abstract int getOutputRate();
+
+    public abstract int getOutputFramesPerBurst();
+
+    /**
+     * Whether the audio streams stay open between sessions. Once cleared they are closed, at once
+     * if no session is running, else when it stops. The next startEngine opens them either way.
+     */
+    public abstract void setStreamsWanted(boolean wanted);
 }
@@ -12,6 +12,10 @@ class DigiBattleConfig {
     public static int voltageChangeThreshold = 10000;
     public static float analogInitRatio = 0.7f;
     public static int analogDelta = 50;
+    // Only for output frames, PING and the fallback when words can not be synthesized.
+    public static int resampler = AudioEngine.RESAMPLER_POLYPHASE;
+    // 0 records at the device input rate.
+    public static int captureRate = 0;
 
 
     public static void update(Context context) {
@@ -27,9 +31,16 @@ class DigiBattleConfig {
         analogDelta = parseInt(
                 PreferenceManager.getDefaultSharedPreferences(context).getString("analog_delta",
                         "50"), 50);
+        resampler = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                "band_limited_resampler", true) ? AudioEngine.RESAMPLER_POLYPHASE
+                : AudioEngine.RESAMPLER_NEAREST;
+        captureRate = parseInt(
+                PreferenceManager.getDefaultSharedPreferences(context).getString("capture_rate",
+                        "0"), 0);
         Log.i(TAG,
                 "expectedRTT:" + expectedRTT + ", voltageChangeThreshold:" + voltageChangeThreshold
-                        + ", analogInitRatio:" + analogInitRatio + ", analogDelta:" + analogDelta);
+                        + ", analogInitRatio:" + analogInitRatio + ", analogDelta:" + analogDelta
+                        + ", resampler:" + resampler + ", captureRate:" + captureRate);
     }
 
     private static int parseInt(String str, int defaultValue) {
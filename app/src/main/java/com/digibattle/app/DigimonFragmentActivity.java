@@ -19,6 +19,7 @@ import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.digibattle.app.fragment.Digimon20Mini;
 import com.digibattle.app.fragment.Digimon20Original;
 import com.digibattle.app.fragment.Digimon20Pendulum;
 
@@ -30,8 +31,10 @@ public class DigimonFragmentActivity extends AppCompatActivity {
 
     private static final String VERSION_20TH_ORIGINAL = "Digimon 20th Original";
     private static final String VERSION_20TH_PENDULUM = "Digimon 20th Pendulum";
+    private static final String VERSION_MINI = "Digimon Mini";
+    // New versions go last, the last selected position is saved.
     private static final String[] SUPPORTED_VERSIONS =
-            new String[]{VERSION_20TH_ORIGINAL, VERSION_20TH_PENDULUM};
+            new String[]{VERSION_20TH_ORIGINAL, VERSION_20TH_PENDULUM, VERSION_MINI};
 
     private void setupSpinner() {
         Spinner spinner = findViewById(R.id.digimon_version_spinner);
@@ -53,6 +56,9 @@ public class DigimonFragmentActivity extends AppCompatActivity {
                     case VERSION_20TH_PENDULUM:
                         fragment = new Digimon20Pendulum();
                         break;
+                    case VERSION_MINI:
+                        fragment = new Digimon20Mini();
+                        break;
                     default:
                         Log.e(TAG, "WTF version");
                         fragment = new Digimon20Original();
@@ -100,6 +106,14 @@ public class DigimonFragmentActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        SignalProcessor.setStreamsWanted(true);
+        // After the streams are wanted, so the prewarmer can open them.
+        EnginePrewarmer.start(this);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -107,6 +121,14 @@ public class DigimonFragmentActivity extends AppCompatActivity {
         checkPermission();
     }
 
+    @Override
+    public void onStop() {
+        super.onStop();
+        // Streams, the microphone too, stay open between exchanges while the app is in the
+        // foreground. Give the audio device back while in background, once any exchange stops.
+        SignalProcessor.setStreamsWanted(false);
+    }
+
     private void checkPermission() {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE)
                 != PackageManager.PERMISSION_GRANTED) {
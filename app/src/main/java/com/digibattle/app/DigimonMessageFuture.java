@@ -0,0 +1,111 @@
+package com.digibattle.app;
+
+import android.util.Log;
+
+import com.digibattle.app.DigimonMessageHelper.DigimonMessageResult;
+import com.digibattle.app.DigimonMessageHelper.ErrorResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Result of a running DigimonMessageHelper exchange. It completes as soon as the engine
+ * finishes, and cancelling it stops the engine.
+ */
+public class DigimonMessageFuture extends FutureTask<DigimonMessageResult> {
+
+    private static final String TAG = "DigimonMessageFuture";
+
+    public interface Listener {
+        /**
+         * Called once when the exchange is done, on the thread that completes it, or right away
+         * if it is done already. Cancelled or failed exchanges give an ErrorResult.
+         */
+        void onDone(DigimonMessageResult result);
+    }
+
+    private final Runnable mCancelListener;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private boolean mListenersCalled = false;
+
+    /**
+     * @param cancelListener Run when the future is cancelled, to wake the running exchange.
+     */
+    DigimonMessageFuture(Callable<DigimonMessageResult> callable, Runnable cancelListener) {
+        super(callable);
+        mCancelListener = cancelListener;
+    }
+
+    static DigimonMessageFuture completed(final DigimonMessageResult result) {
+        DigimonMessageFuture future = new DigimonMessageFuture(
+                new Callable<DigimonMessageResult>() {
+                    @Override
+                    public DigimonMessageResult call() {
+                        return result;
+                    }
+                }, null);
+        future.run();
+        return future;
+    }
+
+    public DigimonMessageFuture addListener(Listener listener) {
+        synchronized (mListeners) {
+            if (!mListenersCalled) {
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onDone(getResult());
+        return this;
+    }
+
+    /**
+     * Wait for the result.
+     *
+     * @return The result, or an ErrorResult if the exchange is cancelled or failed.
+     */
+    public DigimonMessageResult getResult() {
+        try {
+            return get();
+        } catch (CancellationException e) {
+            return new ErrorResult("Cancelled");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Exchange failed", e.getCause());
+            return new ErrorResult("Failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ErrorResult("Interrupted");
+        }
+    }
+
+    /**
+     * Cancel the exchange, which stops the engine. A running exchange is always interrupted,
+     * mayInterruptIfRunning is ignored.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(true);
+        if (cancelled && mCancelListener != null) {
+            mCancelListener.run();
+        }
+        return cancelled;
+    }
+
+    @Override
+    protected void done() {
+        List<Listener> listeners;
+        synchronized (mListeners) {
+            mListenersCalled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        DigimonMessageResult result = getResult();
+        for (Listener listener : listeners) {
+            listener.onDone(result);
+        }
+    }
+}
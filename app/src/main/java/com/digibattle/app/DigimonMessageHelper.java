@@ -1,31 +1,114 @@
 package com.digibattle.app;
 
 import android.os.Looper;
+import android.util.Log;
 
+import com.digibattle.app.encoder.ClockRecoveryDecoder;
+import com.digibattle.app.encoder.DeviceFamilyDetector;
 import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.encoder.DigimonMiniEncoder;
+import com.digibattle.app.encoder.DigimonPendulumEncoder;
+import com.digibattle.app.encoder.EncodedWaveformCache;
+import com.digibattle.app.signal.AnalogSignalView;
+import com.digibattle.app.signal.AnalogToDigitalConverter;
+import com.digibattle.app.signal.DigitalSignal;
+import com.digibattle.app.signal.EdgeSignal;
+import com.digibattle.app.signal.FrameBuffer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class DigimonMessageHelper {
 
+    private static final String TAG = "DigimonMessageHelper";
+    private static final int CONVERT_INTERVAL_MS = 50;
+
+    // Exchanges of all helpers run one at a time on this thread, there is only one audio
+    // engine. A daemon thread, so it never keeps the process alive.
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DigimonExchange");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     public static class DigimonMessageResult {
-        public String[] hexMsg;
-        public boolean[] digitalSignal;
-        public short[] analogSignal;
+        // Received words, bit i is the i-th message.
+        public int[] words;
+        // Stored as edges, a recording is mostly long runs of the same level.
+        public DigitalSignal digitalSignal;
+        // Read in place from native memory, valid until release.
+        public AnalogSignalView analogSignal;
         public int[][] partitionIndex;
+        // Confidence of each bit of each partition, from 0 to 1.
+        public float[][] bitConfidence;
+        // Partner clock drift of each partition in ppm, see ClockRecoveryDecoder.
+        public float[] clockDriftPpm;
+        // Encoder that matches the partner's timing, used to decode the partner's partitions.
+        public DigimonMessageEncoder partnerEncoder;
         public int rate;
+        private ReceivedSignal mReceivedSignal;
+
+        /**
+         * Free the recorded analog signal, analogSignal and views of it must not be used
+         * afterwards.
+         */
+        public void release() {
+            if (mReceivedSignal != null) {
+                mReceivedSignal.release();
+            }
+        }
+
+        /**
+         * Get received words as 4 char hex messages, like e123 or 0f0f.
+         */
+        public String[] getHexMsg() {
+            String[] hexMsg = new String[words.length];
+            for (int i = 0; i < words.length; i++) {
+                hexMsg[i] = DigimonMessageEncoder.toHexString(words[i]);
+            }
+            return hexMsg;
+        }
     }
 
     public static class ErrorResult extends DigimonMessageResult {
+        private final String mErrorMsg;
+
         public ErrorResult(String errorMsg) {
-            hexMsg = new String[1];
-            hexMsg[0] = errorMsg;
+            mErrorMsg = errorMsg;
+        }
+
+        @Override
+        public String[] getHexMsg() {
+            return new String[]{mErrorMsg};
         }
     }
 
+    public interface PartitionListener {
+        /**
+         * Called on the exchange thread as soon as a partition is received and decoded, in
+         * partition order. Partitions alternate between the sender and the replier.
+         *
+         * @param partitionNumber Partition number, from 0.
+         * @param partitionIndex  Handshake start, handshake end and signal end in the recording.
+         * @param word            Decoded word, bit i is the i-th message.
+         */
+        void onPartitionReceived(int partitionNumber, int[] partitionIndex, int word);
+    }
+
     private final SignalProcessor mProcessor = new SignalProcessor();
     private final DigimonMessageEncoder mEncoder;
-
-    private boolean mIsRunning = false;
-    private boolean mStopRequested = false;
+    private final DeviceFamilyDetector mDetector = new DeviceFamilyDetector();
+    private ClockRecoveryDecoder mDecoder;
+    private ClockRecoveryDecoder mPartnerDecoder;
+    // Set by startEngine, whether the engine synthesizes my partitions from words.
+    private boolean mSynthesizing;
+    private DigimonMessageFuture mCurrentFuture;
 
     public DigimonMessageHelper(DigimonMessageEncoder encoder) {
         this.mEncoder = encoder;
@@ -34,6 +117,7 @@ public class DigimonMessageHelper {
     /**
      * Send digimon message out!
      * Each partition is a 4 char hex message, like e123 or 0f0f.
+     * Blocks until it is done, use sendDigimonMessageAsync on the main thread.
      *
      * @param hexStringPartition Array of 4 char hex messages as input.
      * @return Array of 4 char hex messages as received signals.
@@ -43,20 +127,30 @@ public class DigimonMessageHelper {
         if (Thread.currentThread() == Looper.getMainLooper().getThread()) {
             throw new IllegalStateException("Do not run it in main thread.");
         }
-        synchronized (this) {
-            if (!mIsRunning) {
-                mIsRunning = true;
-                mStopRequested = false;
-            } else {
-                return new ErrorResult("Already running");
-            }
-        }
-        return processDigimonMessage(hexStringPartition, true, startProcessingListener, null);
+        return sendDigimonMessageAsync(hexStringPartition, startProcessingListener).getResult();
+    }
+
+    /**
+     * Same as sendDigimonMessage, but returns at once. Listeners run on the exchange thread.
+     */
+    public DigimonMessageFuture sendDigimonMessageAsync(String[] hexStringPartition,
+            Runnable startProcessingListener) {
+        return sendDigimonMessageAsync(hexStringPartition, startProcessingListener, null);
+    }
+
+    /**
+     * Same as sendDigimonMessageAsync, partitionListener gets each partition as it arrives.
+     */
+    public DigimonMessageFuture sendDigimonMessageAsync(String[] hexStringPartition,
+            Runnable startProcessingListener, PartitionListener partitionListener) {
+        return startExchange(hexStringPartition, true, startProcessingListener, null,
+                partitionListener);
     }
 
     /**
      * Wait for incoming digimon message and reply!
      * Each partition is a 4 char hex message, like e123 or 0f0f.
+     * Blocks until it is done, use replyDigimonMessageAsync on the main thread.
      *
      * @param hexStringPartition Array of 4 char hex messages as input.
      */
@@ -65,89 +159,199 @@ public class DigimonMessageHelper {
         if (Thread.currentThread() == Looper.getMainLooper().getThread()) {
             throw new IllegalStateException("Do not run it in main thread.");
         }
-        synchronized (this) {
-            if (!mIsRunning) {
-                mIsRunning = true;
-                mStopRequested = false;
-            } else {
-                return new ErrorResult("Already running");
-            }
-        }
-        return processDigimonMessage(hexStringPartition, false, startProcessingListener,
-                startReplyingListener);
+        return replyDigimonMessageAsync(hexStringPartition, startProcessingListener,
+                startReplyingListener).getResult();
     }
 
     /**
-     * Stop existing send / wait messages function.
+     * Same as replyDigimonMessage, but returns at once. Listeners run on the exchange thread.
      */
-    public void stop() {
-        mStopRequested = true;
+    public DigimonMessageFuture replyDigimonMessageAsync(String[] hexStringPartition,
+            Runnable startProcessingListener, Runnable startReplyingListener) {
+        return replyDigimonMessageAsync(hexStringPartition, startProcessingListener,
+                startReplyingListener, null);
     }
 
-    private DigimonMessageResult processDigimonMessage(String[] hexStringPartition, boolean sender,
-            Runnable startProcessingListener, Runnable startReplyingListener) {
-        int partitionLength = hexStringPartition.length;
-        boolean[][] digitalSignalPartition = new boolean[partitionLength][];
-        for (int i = 0; i < partitionLength; i++) {
-            digitalSignalPartition[i] = mEncoder.encodeWithHandshakeAndStartSignal(
-                    hexStringPartition[i]);
+    /**
+     * Same as replyDigimonMessageAsync, partitionListener gets each partition as it arrives.
+     */
+    public DigimonMessageFuture replyDigimonMessageAsync(String[] hexStringPartition,
+            Runnable startProcessingListener, Runnable startReplyingListener,
+            PartitionListener partitionListener) {
+        return startExchange(hexStringPartition, false, startProcessingListener,
+                startReplyingListener, partitionListener);
+    }
+
+    /**
+     * Stop existing send / wait messages function.
+     */
+    public synchronized void stop() {
+        if (mCurrentFuture != null) {
+            mCurrentFuture.cancel(true);
         }
-        try {
-            int outputRate;
-            if (sender) {
-                outputRate = mProcessor.sendDigitalSignal(digitalSignalPartition, mEncoder.rate(),
-                        mEncoder.handshake().length, true,
-                        mEncoder.messageWithSignalSignalLenInMs());
+    }
 
-            } else {
-                outputRate = mProcessor.waitDigitalSignal(digitalSignalPartition, mEncoder.rate(),
-                        mEncoder.handshake().length, true,
-                        mEncoder.messageWithSignalSignalLenInMs());
+    private synchronized DigimonMessageFuture startExchange(final String[] hexStringPartition,
+            final boolean sender, final Runnable startProcessingListener,
+            final Runnable startReplyingListener, final PartitionListener partitionListener) {
+        if (mCurrentFuture != null && !mCurrentFuture.isDone()) {
+            return DigimonMessageFuture.completed(new ErrorResult("Already running"));
+        }
+        final DigimonMessageFuture[] future = new DigimonMessageFuture[1];
+        future[0] = new DigimonMessageFuture(new Callable<DigimonMessageResult>() {
+            @Override
+            public DigimonMessageResult call() {
+                DigimonMessageResult result = processDigimonMessage(hexStringPartition, sender,
+                        startProcessingListener, startReplyingListener, partitionListener);
+                if (future[0].isCancelled()) {
+                    // Nobody gets the result.
+                    result.release();
+                }
+                return result;
             }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                mProcessor.wakeStatusWaiters();
+            }
+        });
+        mCurrentFuture = future[0];
+        sExecutor.execute(future[0]);
+        return future[0];
+    }
+
+    private DigimonMessageResult processDigimonMessage(String[] hexStringPartition, boolean sender,
+            Runnable startProcessingListener, Runnable startReplyingListener,
+            PartitionListener partitionListener) {
+        try {
+            int outputRate = startEngine(hexStringPartition, sender);
             if (startProcessingListener != null) {
                 startProcessingListener.run();
             }
             boolean triggeredReplyListener = false;
             DigimonMessageResult result = new DigimonMessageResult();
-            try {
-                while (!mStopRequested) {
-                    if (startReplyingListener != null && !triggeredReplyListener
-                            && mProcessor.getStatus() == AudioEngine.STATUS_PROCESSING_SIGNAL) {
-                        triggeredReplyListener = true;
-                        startReplyingListener.run();
-                    }
-                    if (mProcessor.isFinished()) {
-                        int[][] partitionsIndex = mProcessor.getPartitionsIndex();
-                        boolean[] digitalSignal = mProcessor.receiveDigitalSignal();
-                        int numOfMessage = partitionsIndex.length;
-                        String[] hexMsg = new String[numOfMessage];
-                        for (int i = 0; i < numOfMessage; i++) {
-                            boolean[] partitionSignal = SignalUtils.getPartition(digitalSignal,
-                                    partitionsIndex[i][1], partitionsIndex[i][2]);
-                            boolean[] digitalMessage = mEncoder.decodeDigitalSignal(outputRate,
-                                    partitionSignal);
-                            hexMsg[i] = mEncoder.getHexMessage(digitalMessage);
-                        }
-                        result.partitionIndex = partitionsIndex;
-                        result.digitalSignal = mProcessor.receiveDigitalSignal();
-                        result.analogSignal = mProcessor.receiveAnalogSignal();
-                        result.hexMsg = hexMsg;
-                        result.rate = outputRate;
-                        return result;
+            ReceivedSignalCursor cursor = mProcessor.openReceivedSignalCursor();
+            // Guess the first level from the first sample, same as SignalUtils.analog2Digital.
+            AnalogToDigitalConverter converter = new AnalogToDigitalConverter(
+                    DigiBattleConfig.voltageChangeThreshold);
+            converter.resetWithGuess(DigiBattleConfig.voltageChangeThreshold);
+            ExchangeDecoder decoder = new ExchangeDecoder(sender, outputRate, partitionListener);
+            int status = mProcessor.getStatus();
+            // Cancelling the future interrupts this thread.
+            while (!Thread.currentThread().isInterrupted()) {
+                convertReceivedSignal(cursor, converter);
+                if (startReplyingListener != null && !triggeredReplyListener
+                        && status == AudioEngine.STATUS_PROCESSING_SIGNAL) {
+                    triggeredReplyListener = true;
+                    startReplyingListener.run();
+                }
+                if (status == AudioEngine.STATUS_FINISHED) {
+                    int[][] partitionsIndex = mProcessor.getPartitionsIndex();
+                    ReceivedSignal receivedSignal = mProcessor.receiveAnalogSignal();
+                    AnalogSignalView analogSignal = receivedSignal.getSamples();
+                    // Only the tail the cursor has not read is left to convert.
+                    converter.process(analogSignal.slice(
+                            Math.min((int) cursor.getPosition(), analogSignal.length()),
+                            analogSignal.length()));
+                    DigitalSignal digitalSignal = EdgeSignal.fromDigitalSignal(
+                            converter.getOutput());
+                    decoder.decode(partitionsIndex, digitalSignal, partitionsIndex.length);
+                    if (decoder.isPartnerMismatched(true)) {
+                        receivedSignal.release();
+                        return getPartnerMismatchError(decoder.getPartnerEncoder());
                     }
-                    Thread.sleep(100);
+                    result.partitionIndex = partitionsIndex;
+                    result.bitConfidence = decoder.mBitConfidence;
+                    result.clockDriftPpm = decoder.mClockDriftPpm;
+                    result.partnerEncoder = decoder.getPartnerEncoder();
+                    result.digitalSignal = digitalSignal;
+                    result.analogSignal = analogSignal;
+                    result.mReceivedSignal = receivedSignal;
+                    result.words = decoder.mWords;
+                    result.rate = outputRate;
+                    return result;
                 }
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                // The partner is detected from its first partition, so a wrong version fails
+                // right away instead of after the whole exchange.
+                if (status == AudioEngine.STATUS_PROCESSING_SIGNAL
+                        && (partitionListener != null || !decoder.hasDetectedPartner())) {
+                    int[][] partitionsIndex = mProcessor.getPartitionsIndex();
+                    decoder.decode(partitionsIndex, converter.getOutput(),
+                            decoder.getNumOfReceived(partitionsIndex,
+                                    converter.getNumOfSamples()));
+                }
+                if (decoder.isPartnerMismatched(false)) {
+                    return getPartnerMismatchError(decoder.getPartnerEncoder());
+                }
+                if (status == AudioEngine.STATUS_NOT_INITED) {
+                    break;
+                }
+                // Wakes up right away on status changes and stop requests, and regularly to
+                // convert the recording so far.
+                status = mProcessor.waitForStatusChange(status, CONVERT_INTERVAL_MS);
             }
         } finally {
             mProcessor.stop();
-            mIsRunning = false;
         }
         return new ErrorResult("Failed");
     }
 
+    // Words are synthesized by the engine, other partitions are rendered into frames first.
+    private int startEngine(String[] hexStringPartition, boolean sender) {
+        mSynthesizing = false;
+        int[] words = toWords(hexStringPartition);
+        int[] timingUs = mEncoder.getSymbolTimingUs();
+        if (words != null && timingUs != null) {
+            int outputRate;
+            if (sender) {
+                outputRate = mProcessor.sendWords(words, timingUs, mEncoder.rate(),
+                        mEncoder.getHandshakeSize(), true,
+                        mEncoder.messageWithSignalSignalLenInMs());
+            } else {
+                outputRate = mProcessor.waitWords(words, timingUs, mEncoder.rate(),
+                        mEncoder.getHandshakeSize(), true,
+                        mEncoder.messageWithSignalSignalLenInMs());
+            }
+            if (outputRate != 0) {
+                mSynthesizing = true;
+                return outputRate;
+            }
+            Log.w(TAG, "Engine can not synthesize the words, rendering frames");
+        }
+        FrameBuffer frames = EncodedWaveformCache.getInstance().encodeFrames(mEncoder,
+                hexStringPartition);
+        if (sender) {
+            return mProcessor.sendAnalogSignal(frames, mEncoder.rate(),
+                    mEncoder.getHandshakeSize(), true, mEncoder.messageWithSignalSignalLenInMs());
+        }
+        return mProcessor.waitAnalogSignal(frames, mEncoder.rate(), mEncoder.getHandshakeSize(),
+                true, mEncoder.messageWithSignalSignalLenInMs());
+    }
+
+    /**
+     * Parse 4 char hex messages into words.
+     *
+     * @return The words, or null if a message is not a 16 bits hex word.
+     */
+    static int[] toWords(String[] hexStringPartition) {
+        int[] words = new int[hexStringPartition.length];
+        for (int i = 0; i < words.length; i++) {
+            String hexString = hexStringPartition[i];
+            if (hexString == null || hexString.isEmpty()
+                    || hexString.length() > DigimonMessageEncoder.NIBBLES_PER_WORD) {
+                return null;
+            }
+            for (int j = 0; j < hexString.length(); j++) {
+                int nibble = Character.digit(hexString.charAt(j), 16);
+                if (nibble < 0) {
+                    return null;
+                }
+                words[i] = (words[i] << DigimonMessageEncoder.BITS_PER_NIBBLE) | nibble;
+            }
+        }
+        return words;
+    }
+
     /**
      * Get the fucking stupid checksum value for digimon 20th.
      */
@@ -167,6 +371,188 @@ public class DigimonMessageHelper {
         return table[(16 - total % 16) % 16];
     }
 
+    // Convert what is recorded so far, so little is left to do when the exchange finishes.
+    private static void convertReceivedSignal(ReceivedSignalCursor cursor,
+            AnalogToDigitalConverter converter) {
+        AnalogSignalView chunk = cursor.read();
+        while (chunk.length() > 0) {
+            converter.process(chunk);
+            chunk = cursor.read();
+        }
+    }
+
+    /**
+     * Decodes the partitions of one exchange in order, as they are received.
+     */
+    private class ExchangeDecoder {
+        // Partitions alternate between partner and me, partner goes first when I'm replying.
+        private final int mPartnerParity;
+        private final int mRate;
+        private final PartitionListener mListener;
+        // When replying, the partner's first partition is detected about when my first one
+        // starts, so the engine can still send all of mine with the partner's timing.
+        private final boolean mCanSwitchTiming;
+        // Detected from the partner's first partition.
+        private DigimonMessageEncoder mPartnerEncoder;
+        private boolean mSwitchedTiming;
+        private final int[] mWords = new int[SignalProcessor.MAX_PARTITIONS_NUMBER];
+        private final float[][] mBitConfidence =
+                new float[SignalProcessor.MAX_PARTITIONS_NUMBER][];
+        private final float[] mClockDriftPpm = new float[SignalProcessor.MAX_PARTITIONS_NUMBER];
+        private int mNumOfDecoded = 0;
+
+        private ExchangeDecoder(boolean sender, int rate, PartitionListener listener) {
+            mPartnerParity = sender ? 1 : 0;
+            mRate = rate;
+            mListener = listener;
+            mCanSwitchTiming = !sender && mSynthesizing;
+            mDecoder = getDecoder(mDecoder, mEncoder, rate);
+        }
+
+        /**
+         * Number of partitions from the start that have ended within the first numOfSamples
+         * samples.
+         */
+        private int getNumOfReceived(int[][] partitionsIndex, int numOfSamples) {
+            int numOfReceived = mNumOfDecoded;
+            while (numOfReceived < partitionsIndex.length
+                    && partitionsIndex[numOfReceived][2] != 0
+                    && partitionsIndex[numOfReceived][2] < numOfSamples) {
+                numOfReceived++;
+            }
+            return numOfReceived;
+        }
+
+        /**
+         * Decode partitions that are not decoded yet, up to numOfPartitions.
+         */
+        private void decode(int[][] partitionsIndex, DigitalSignal digitalSignal,
+                int numOfPartitions) {
+            numOfPartitions = Math.min(numOfPartitions, mWords.length);
+            for (int i = mNumOfDecoded; i < numOfPartitions; i++) {
+                boolean fromPartner = i % 2 == mPartnerParity;
+                if (fromPartner && mPartnerEncoder == null) {
+                    mPartnerEncoder = detectPartnerEncoder(digitalSignal, partitionsIndex,
+                            mPartnerParity);
+                    mPartnerDecoder = getDecoder(mPartnerDecoder, mPartnerEncoder, mRate);
+                    if (mCanSwitchTiming && isOtherFamily()) {
+                        mSwitchedTiming = switchTiming(mPartnerEncoder);
+                    }
+                }
+                DigitalSignal partitionSignal = SignalUtils.getPartition(digitalSignal,
+                        partitionsIndex[i][1], partitionsIndex[i][2]);
+                ClockRecoveryDecoder decoder = fromPartner || isSentWithPartnerTiming(i)
+                        ? mPartnerDecoder : mDecoder;
+                ClockRecoveryDecoder.Result word = decoder.decode(partitionSignal);
+                mClockDriftPpm[i] = word.getDriftPpm();
+                mWords[i] = word.getWord();
+                mBitConfidence[i] = new float[DigimonMessageEncoder.BITS_PER_WORD];
+                for (int j = 0; j < mBitConfidence[i].length; j++) {
+                    mBitConfidence[i][j] = word.getConfidence(j);
+                }
+                if (mListener != null && partitionsIndex[i][2] != 0) {
+                    mListener.onPartitionReceived(i, partitionsIndex[i], mWords[i]);
+                }
+            }
+            mNumOfDecoded = Math.max(mNumOfDecoded, numOfPartitions);
+        }
+
+        private DigimonMessageEncoder getPartnerEncoder() {
+            return mPartnerEncoder != null ? mPartnerEncoder : mEncoder;
+        }
+
+        private boolean hasDetectedPartner() {
+            return mPartnerEncoder != null;
+        }
+
+        private boolean isOtherFamily() {
+            return mPartnerEncoder != null && mPartnerEncoder.getClass() != mEncoder.getClass();
+        }
+
+        private boolean switchTiming(DigimonMessageEncoder partnerEncoder) {
+            int[] timingUs = partnerEncoder.getSymbolTimingUs();
+            if (timingUs == null || !mProcessor.setSymbolTiming(timingUs, partnerEncoder.rate(),
+                    partnerEncoder.messageWithSignalSignalLenInMs())) {
+                return false;
+            }
+            Log.i(TAG, "Sending with " + partnerEncoder.getClass().getSimpleName() + " timing");
+            return true;
+        }
+
+        // Partition i is one of mine, sent after the engine switched to the partner's timing.
+        private boolean isSentWithPartnerTiming(int i) {
+            if (!mSwitchedTiming) {
+                return false;
+            }
+            int firstPartition = mProcessor.getSymbolTimingPartition();
+            return firstPartition >= 0 && i / 2 >= firstPartition;
+        }
+
+        /**
+         * The partner's toy does not take partitions with another family's timing. Mine are
+         * fine if the engine switched before the first of them, which is only known once it
+         * switched or the exchange is finished.
+         */
+        private boolean isPartnerMismatched(boolean finished) {
+            if (!isOtherFamily()) {
+                return false;
+            }
+            if (!mSwitchedTiming) {
+                return true;
+            }
+            int firstPartition = mProcessor.getSymbolTimingPartition();
+            return firstPartition > 0 || (firstPartition < 0 && finished);
+        }
+    }
+
+    private static ClockRecoveryDecoder getDecoder(ClockRecoveryDecoder lastDecoder,
+            DigimonMessageEncoder encoder, int inputRate) {
+        if (lastDecoder == null || lastDecoder.getEncoder() != encoder
+                || lastDecoder.getInputRate() != inputRate) {
+            return new ClockRecoveryDecoder(encoder, inputRate);
+        }
+        return lastDecoder;
+    }
+
+    /**
+     * Detect the partner's toy family from its first partition, falls back to my encoder if
+     * the timing can not be measured or does not clearly fit another family.
+     */
+    private DigimonMessageEncoder detectPartnerEncoder(DigitalSignal digitalSignal,
+            int[][] partitionsIndex, int partnerParity) {
+        if (partitionsIndex.length <= partnerParity) {
+            return mEncoder;
+        }
+        int[] index = partitionsIndex[partnerParity];
+        DigimonMessageEncoder detected = mDetector.detect(digitalSignal, index[0], index[2],
+                mEncoder);
+        if (detected == null) {
+            return mEncoder;
+        }
+        if (detected.getClass() != mEncoder.getClass()) {
+            Log.w(TAG, "Partner looks like " + detected.getClass().getSimpleName()
+                    + " but sent with " + mEncoder.getClass().getSimpleName());
+            return detected;
+        }
+        return mEncoder;
+    }
+
+    private static ErrorResult getPartnerMismatchError(DigimonMessageEncoder partnerEncoder) {
+        return new ErrorResult("Partner is a " + getFamilyName(partnerEncoder)
+                + " toy, select it and try again");
+    }
+
+    // Name of the toy family as the version list shows it.
+    private static String getFamilyName(DigimonMessageEncoder encoder) {
+        if (encoder instanceof DigimonPendulumEncoder) {
+            return "20th Pendulum";
+        }
+        if (encoder instanceof DigimonMiniEncoder) {
+            return "Mini";
+        }
+        return "20th Original";
+    }
+
     public int[] getMarkerPos(int rate) {
         return mEncoder.getMarkerPosition(rate);
     }
@@ -0,0 +1,105 @@
+package com.digibattle.app;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.digibattle.app.encoder.ClockRecoveryDecoder;
+import com.digibattle.app.encoder.DeviceFamilyDetector;
+import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.encoder.DigimonMiniEncoder;
+import com.digibattle.app.encoder.DigimonOriginalEncoder;
+import com.digibattle.app.encoder.DigimonPendulumEncoder;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.DigitalSignal;
+
+/**
+ * Does the slow first time work of an exchange at app launch, on a background thread: loads the
+ * native library, opens the audio streams and runs the encode / decode code once so it is compiled
+ * before the first battle. Battles synthesize their output in the engine, so there are no
+ * partition frames to render or resample ahead.
+ */
+public class EnginePrewarmer {
+
+    private static final String TAG = "EnginePrewarmer";
+
+    // Uses all 16 nibbles across the partitions, so every encoder table is touched.
+    private static final String[] SYNTHETIC_MESSAGES = new String[]{"0123", "4567", "89ab", "cdef"};
+
+    private static EnginePrewarmer sInstance;
+
+    private final SignalProcessor mProcessor = new SignalProcessor();
+    private final DigimonMessageEncoder[] mEncoders = new DigimonMessageEncoder[]{
+            new DigimonOriginalEncoder(), new DigimonPendulumEncoder(), new DigimonMiniEncoder()};
+    private long mStepStartTime;
+
+    /**
+     * Start prewarming unless it is started already. Returns at once.
+     */
+    public synchronized static void start(Context context) {
+        if (sInstance != null) {
+            return;
+        }
+        final EnginePrewarmer prewarmer = new EnginePrewarmer();
+        sInstance = prewarmer;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prewarmer.prewarm();
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void prewarm() {
+        long startTime = SystemClock.elapsedRealtime();
+        mStepStartTime = startTime;
+        // Creating the engine loads the native library.
+        mProcessor.getStatus();
+        endStep("Load native library");
+
+        // Not wanted once the app went to background, they would hold the microphone.
+        boolean streamsOpen = SignalProcessor.areStreamsWanted() && SignalProcessor.openStreams();
+        endStep("Open streams");
+        if (streamsOpen) {
+            Log.i(TAG, "Input rate: " + SignalProcessor.getInputRate() + ", output rate: "
+                    + SignalProcessor.getOutputRate() + ", burst: "
+                    + SignalProcessor.getOutputFramesPerBurst());
+        } else {
+            Log.w(TAG, "Failed to open streams, they are opened by the first exchange");
+        }
+
+        for (DigimonMessageEncoder encoder : mEncoders) {
+            decodeSyntheticMessages(encoder);
+        }
+        endStep("Synthetic encode / decode");
+        Log.i(TAG, "Done in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+    }
+
+    private void decodeSyntheticMessages(DigimonMessageEncoder encoder) {
+        DeviceFamilyDetector detector = new DeviceFamilyDetector();
+        ClockRecoveryDecoder decoder = new ClockRecoveryDecoder(encoder, encoder.rate());
+        for (String message : SYNTHETIC_MESSAGES) {
+            BitSignal digital = encoder.encodeWithHandshakeAndStartSignal(message);
+            SignalUtils.analog2Digital(SignalUtils.digital2Analog(digital),
+                    DigiBattleConfig.voltageChangeThreshold);
+            // The engine flags the handshake some samples after it starts.
+            detector.detect(digital, encoder.getHandshakeSize() / 2, digital.length());
+            DigitalSignal partition = SignalUtils.getPartition(digital,
+                    encoder.getHandshakeSize(), digital.length());
+            int word = decoder.decode(partition).getWord();
+            if (word != Integer.parseInt(message, 16)) {
+                Log.w(TAG, encoder.getClass().getSimpleName() + " decoded " + message + " as "
+                        + DigimonMessageEncoder.toHexString(word));
+            }
+        }
+    }
+
+    // Log the time since the previous step ended, and start the next step.
+    private void endStep(String name) {
+        long now = SystemClock.elapsedRealtime();
+        Log.i(TAG, name + ": " + (now - mStepStartTime) + "ms");
+        mStepStartTime = now;
+    }
+}
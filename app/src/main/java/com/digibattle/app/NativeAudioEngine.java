@@ -1,5 +1,7 @@
 package com.digibattle.app;
 
+import java.nio.ByteBuffer;
+
 public class NativeAudioEngine extends AudioEngine {
 
     // Used to load the 'native-lib' library on application startup.
@@ -11,20 +13,49 @@ public class NativeAudioEngine extends AudioEngine {
 
     public native void startEngine();
 
-    public native void initEngine(int expectedRTTms, int expectedMsgLenMs, short[][] outputFrames,
-            int outputRate,
+    public native void initEngine(int expectedRTTms, int expectedMsgLenMs, short[] outputFrames,
+            int[] outputFrameOffsets, int[] outputFrameKeys, int outputRate,
             int inputSignalStartThreshold,
             boolean asSender, int handshakeSize, int partitionStatusChangeThreshold,
-            boolean timeoutToFinish);
+            boolean timeoutToFinish, int resampler, int captureRate);
+
+
+    public native boolean useSynthesizer(int[] words, int[] timingUs, short highLevel,
+            short lowLevel, float initRatio, int delta, boolean ramp);
+
+    public native boolean setSymbolTiming(int[] timingUs, int rate, int expectedMsgLenMs);
 
+    public native int getSymbolTimingPartition();
 
     public native int getStatus();
 
+    public native int waitForStatusChange(int status, int timeoutMs);
+
+    public native void wakeStatusWaiters();
+
     public native long getRTT();
 
-    public native short[] getReceivedSignal();
+    public native ByteBuffer getReceivedSignal();
+
+    public native void releaseReceivedSignal(ByteBuffer signal);
+
+    public native int readReceivedSignal(ByteBuffer chunk);
 
     public native int getReceivedRate();
 
-    public native int[] getPartitionIndex(int partitionNumber);
+    public native long getResampleCacheHitCount();
+
+    public native long getResampleCacheMissCount();
+
+    public native int snapshotPartitionIndex(ByteBuffer table);
+
+    public native boolean openStreams();
+
+    public native int getInputRate();
+
+    public native int getOutputRate();
+
+    public native int getOutputFramesPerBurst();
+
+    public native void setStreamsWanted(boolean wanted);
 }
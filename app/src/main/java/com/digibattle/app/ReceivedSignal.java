@@ -0,0 +1,40 @@
+package com.digibattle.app;
+
+import com.digibattle.app.signal.AnalogSignalView;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Analog signals recorded by an AudioEngine. The samples stay in the engine's native memory and
+ * are read in place, so there is no copy and no limit on the recording length.
+ * Call release once the samples, and every view made from them, are no longer used.
+ */
+public class ReceivedSignal {
+
+    private final AudioEngine mAudioEngine;
+    private ByteBuffer mBuffer;
+    private final AnalogSignalView mSamples;
+
+    ReceivedSignal(AudioEngine audioEngine, ByteBuffer buffer) {
+        mAudioEngine = audioEngine;
+        mBuffer = buffer;
+        mSamples = buffer == null ? AnalogSignalView.empty()
+                : AnalogSignalView.wrap(buffer.order(ByteOrder.nativeOrder()).asShortBuffer());
+    }
+
+    public AnalogSignalView getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * Free the native memory, the samples must not be read afterwards. Calling it more than once
+     * is fine.
+     */
+    public synchronized void release() {
+        if (mBuffer != null) {
+            mAudioEngine.releaseReceivedSignal(mBuffer);
+            mBuffer = null;
+        }
+    }
+}
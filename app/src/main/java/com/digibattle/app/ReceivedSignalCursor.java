@@ -0,0 +1,45 @@
+package com.digibattle.app;
+
+import com.digibattle.app.signal.AnalogSignalView;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Reads the recording of the running exchange in chunks, each read gives the samples recorded
+ * since the previous one. The chunk buffer is allocated once and reused.
+ */
+public class ReceivedSignalCursor {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final AudioEngine mAudioEngine;
+    private final ByteBuffer mChunk;
+    private final ShortBuffer mChunkSamples;
+    private long mPosition = 0;
+
+    ReceivedSignalCursor(AudioEngine audioEngine) {
+        mAudioEngine = audioEngine;
+        mChunk = ByteBuffer.allocateDirect(CHUNK_SIZE * 2).order(ByteOrder.nativeOrder());
+        mChunkSamples = mChunk.asShortBuffer();
+    }
+
+    /**
+     * Read at most one chunk of new samples. The view is only valid until the next read.
+     *
+     * @return New samples, empty if nothing new is recorded.
+     */
+    public AnalogSignalView read() {
+        int numOfSamples = mAudioEngine.readReceivedSignal(mChunk);
+        mPosition += numOfSamples;
+        return new AnalogSignalView(mChunkSamples, 0, numOfSamples);
+    }
+
+    /**
+     * Number of samples read so far, which is the index of the next sample in the recording.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+}
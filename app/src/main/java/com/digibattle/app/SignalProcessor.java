@@ -1,6 +1,12 @@
 package com.digibattle.app;
 
-import android.util.Log;
+import com.digibattle.app.signal.AnalogSignalView;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.FrameBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 /**
  * Class to send / receive digital / analog signals.
@@ -9,14 +15,47 @@ public class SignalProcessor {
     private static final String TAG = "SignalProcessor";
 
     private static final boolean USE_NATIVE = true;
-    private final AudioEngine mAudioEngine = USE_NATIVE ? new NativeAudioEngine() : null;
+    // Created on first use, so the native library is loaded by the thread that needs it first.
+    private AudioEngine mAudioEngine;
 
     public static final int MAX_PARTITIONS_NUMBER = 20;
     private static final int DEFAULT_PARTITION_STATUS_CHANGE_THRESHOLD_IN_48000 = 300;
 
-    private static final int PARTITION_STATE_HANDSHAKE_START = 0;
-    private static final int PARTITION_STATE_HANDSHAKE_END = 1;
-    private static final int PARTITION_STATE_MESSAGE_END = 2;
+    // Reused for every snapshot of the engine's partition table.
+    private final ByteBuffer mPartitionIndexTable = ByteBuffer.allocateDirect(
+            AudioEngine.PARTITION_INDEX_TABLE_PARTITIONS * AudioEngine.PARTITION_INDEX_FIELDS * 4)
+            .order(ByteOrder.nativeOrder());
+
+    // For the calls about the shared streams, which belong to no session.
+    private static AudioEngine sStreamEngine;
+
+    // See setStreamsWanted. Kept here until the native library is loaded, so setting it does not
+    // load the library.
+    private static boolean sStreamsWanted;
+    private static boolean sLibraryLoaded;
+
+    private synchronized AudioEngine getAudioEngine() {
+        if (mAudioEngine == null && USE_NATIVE) {
+            mAudioEngine = newNativeEngine();
+        }
+        return mAudioEngine;
+    }
+
+    private synchronized static AudioEngine getStreamEngine() {
+        if (sStreamEngine == null && USE_NATIVE) {
+            sStreamEngine = newNativeEngine();
+        }
+        return sStreamEngine;
+    }
+
+    private synchronized static AudioEngine newNativeEngine() {
+        AudioEngine engine = new NativeAudioEngine();
+        if (!sLibraryLoaded) {
+            sLibraryLoaded = true;
+            engine.setStreamsWanted(sStreamsWanted);
+        }
+        return engine;
+    }
 
     /**
      * Send digital signal out in partitions.
@@ -27,8 +66,7 @@ public class SignalProcessor {
      * 4). Then I wait for reply.
      * 5). Loop until I send out all partitions.
      *
-     * @param signal          A 2d array, 1st dimension is partition index and 2nd is signal
-     *                        index in that partition.
+     * @param signal          Signal of each partition.
      * @param inputRate       Input signal rate.
      * @param handshakeSize   Handshake signal length at input signal rate. (TODO: Not useful?)
      * @param timeoutToFinish Time to finish after all messages are sent.
@@ -36,21 +74,36 @@ public class SignalProcessor {
      *                        to reduce reply latency.
      * @return Output rate
      */
-    public int sendDigitalSignal(boolean[][] signal, int inputRate, int handshakeSize,
+    public int sendDigitalSignal(BitSignal[] signal, int inputRate, int handshakeSize,
             boolean timeoutToFinish, int msgLenMs) {
-        int partitionThreshold =
-                inputRate * DEFAULT_PARTITION_STATUS_CHANGE_THRESHOLD_IN_48000 / 48000;
-        return sendAnalogSignal(SignalUtils.digital2Analog(signal), inputRate, handshakeSize,
-                partitionThreshold, timeoutToFinish, msgLenMs);
+        return sendAnalogSignal(FrameBuffer.fromPartitions(SignalUtils.digital2Analog(signal)),
+                inputRate, handshakeSize, timeoutToFinish, msgLenMs);
+    }
+
+    /**
+     * Same as sendDigitalSignal, but signal is already converted to analog frames.
+     */
+    public int sendAnalogSignal(FrameBuffer signal, int inputRate, int handshakeSize,
+            boolean timeoutToFinish, int msgLenMs) {
+        return sendAnalogSignal(signal, inputRate, handshakeSize,
+                getPartitionChangeThreshold(inputRate), timeoutToFinish, msgLenMs);
     }
 
     public int sendAnalogSignal(short[][] signal, int inputRate, int handshakeSize,
             int partitionChangeThreshold, boolean timeoutToFinish, int msgLenMs) {
-        mAudioEngine.initEngine(DigiBattleConfig.expectedRTT, msgLenMs, signal, inputRate,
-                DigiBattleConfig.voltageChangeThreshold, true, handshakeSize, partitionChangeThreshold,
-                timeoutToFinish);
-        mAudioEngine.startEngine();
-        return mAudioEngine.getReceivedRate();
+        return sendAnalogSignal(FrameBuffer.fromPartitions(signal), inputRate, handshakeSize,
+                partitionChangeThreshold, timeoutToFinish, msgLenMs);
+    }
+
+    public int sendAnalogSignal(FrameBuffer signal, int inputRate, int handshakeSize,
+            int partitionChangeThreshold, boolean timeoutToFinish, int msgLenMs) {
+        getAudioEngine().initEngine(DigiBattleConfig.expectedRTT, msgLenMs, signal.getSamples(),
+                signal.getOffsets(), signal.getPartitionKeys(), inputRate,
+                DigiBattleConfig.voltageChangeThreshold, true, handshakeSize,
+                partitionChangeThreshold, timeoutToFinish, DigiBattleConfig.resampler,
+                DigiBattleConfig.captureRate);
+        getAudioEngine().startEngine();
+        return getAudioEngine().getReceivedRate();
     }
 
     /**
@@ -62,69 +115,217 @@ public class SignalProcessor {
      * 4). Then I reply with partition[1].
      * 5). Loop until I send out all partitions.
      */
-    public int waitDigitalSignal(boolean[][] signal, int rate, int handshakeSize,
+    public int waitDigitalSignal(BitSignal[] signal, int rate, int handshakeSize,
             boolean timeoutToFinish, int msgLenMs) {
-        int partitionThreshold = rate * DEFAULT_PARTITION_STATUS_CHANGE_THRESHOLD_IN_48000 / 48000;
-        return waitAnalogSignal(SignalUtils.digital2Analog(signal), rate, handshakeSize,
-                partitionThreshold, timeoutToFinish, msgLenMs);
+        return waitAnalogSignal(FrameBuffer.fromPartitions(SignalUtils.digital2Analog(signal)),
+                rate, handshakeSize, timeoutToFinish, msgLenMs);
     }
 
-    public int waitAnalogSignal(short[][] signal, int rate, int handshakeSize,
+    /**
+     * Same as waitDigitalSignal, but signal is already converted to analog frames.
+     */
+    public int waitAnalogSignal(FrameBuffer signal, int rate, int handshakeSize,
+            boolean timeoutToFinish, int msgLenMs) {
+        return waitAnalogSignal(signal, rate, handshakeSize, getPartitionChangeThreshold(rate),
+                timeoutToFinish, msgLenMs);
+    }
+
+    public int waitAnalogSignal(FrameBuffer signal, int rate, int handshakeSize,
             int partitionChangeThreshold, boolean timeoutToFinish, int msgLenMs) {
-        mAudioEngine.initEngine(DigiBattleConfig.expectedRTT, msgLenMs, signal, rate,
+        getAudioEngine().initEngine(DigiBattleConfig.expectedRTT, msgLenMs, signal.getSamples(),
+                signal.getOffsets(), signal.getPartitionKeys(), rate,
                 DigiBattleConfig.voltageChangeThreshold, false, handshakeSize,
-                partitionChangeThreshold, timeoutToFinish);
-        mAudioEngine.startEngine();
-        return mAudioEngine.getReceivedRate();
+                partitionChangeThreshold, timeoutToFinish, DigiBattleConfig.resampler,
+                DigiBattleConfig.captureRate);
+        getAudioEngine().startEngine();
+        return getAudioEngine().getReceivedRate();
+    }
+
+    /**
+     * Same as sendAnalogSignal, but the engine synthesizes each partition from its word and the
+     * symbol timing, so the frames are never rendered. See DigimonMessageEncoder
+     * .getSymbolTimingUs.
+     *
+     * @param rate Encoder rate, which handshakeSize is in.
+     * @return Same as sendAnalogSignal, or 0 if the engine can not synthesize the words, nothing
+     * is started then.
+     */
+    public int sendWords(int[] words, int[] timingUs, int rate, int handshakeSize,
+            boolean timeoutToFinish, int msgLenMs) {
+        return startSynthesizedEngine(words, timingUs, rate, true, handshakeSize, timeoutToFinish,
+                msgLenMs);
+    }
+
+    /**
+     * Same as waitAnalogSignal, with synthesized output like sendWords.
+     */
+    public int waitWords(int[] words, int[] timingUs, int rate, int handshakeSize,
+            boolean timeoutToFinish, int msgLenMs) {
+        return startSynthesizedEngine(words, timingUs, rate, false, handshakeSize,
+                timeoutToFinish, msgLenMs);
+    }
+
+    private int startSynthesizedEngine(int[] words, int[] timingUs, int rate, boolean asSender,
+            int handshakeSize, boolean timeoutToFinish, int msgLenMs) {
+        getAudioEngine().initEngine(DigiBattleConfig.expectedRTT, msgLenMs, new short[0],
+                new int[]{0}, new int[0], rate, DigiBattleConfig.voltageChangeThreshold,
+                asSender, handshakeSize, getPartitionChangeThreshold(rate), timeoutToFinish,
+                DigiBattleConfig.resampler, DigiBattleConfig.captureRate);
+        if (!getAudioEngine().useSynthesizer(words, timingUs,
+                SignalUtils.ANALOG_FROM_VOLTAGE_HIGH, SignalUtils.ANALOG_FROM_VOLTAGE_LOW,
+                DigiBattleConfig.analogInitRatio, DigiBattleConfig.analogDelta,
+                SignalUtils.HAS_TRANSISTOR)) {
+            // The engine has no output frames, it must not start.
+            return 0;
+        }
+        getAudioEngine().startEngine();
+        return getAudioEngine().getReceivedRate();
+    }
+
+    /**
+     * Send my partitions with the timing of another toy family from now on, see
+     * AudioEngine.setSymbolTiming.
+     */
+    public boolean setSymbolTiming(int[] timingUs, int rate, int msgLenMs) {
+        return getAudioEngine().setSymbolTiming(timingUs, rate, msgLenMs);
+    }
+
+    public int getSymbolTimingPartition() {
+        return getAudioEngine().getSymbolTimingPartition();
+    }
+
+    private static int getPartitionChangeThreshold(int rate) {
+        return rate * DEFAULT_PARTITION_STATUS_CHANGE_THRESHOLD_IN_48000 / 48000;
     }
 
     /**
      * Get recorded digital signals when send/wait signal is done.
      */
-    public boolean[] receiveDigitalSignal() {
-        return SignalUtils.analog2Digital(receiveAnalogSignal(),
-                DigiBattleConfig.voltageChangeThreshold);
+    public BitSignal receiveDigitalSignal() {
+        ReceivedSignal signal = receiveAnalogSignal();
+        try {
+            return toDigitalSignal(signal.getSamples());
+        } finally {
+            signal.release();
+        }
+    }
+
+    /**
+     * Convert analog signals got from receiveAnalogSignal, so callers that need both only fetch
+     * and convert the recording once.
+     */
+    public BitSignal toDigitalSignal(AnalogSignalView analog) {
+        return SignalUtils.analog2Digital(analog, DigiBattleConfig.voltageChangeThreshold);
+    }
+
+    /**
+     * Get recorded analog signals when send/wait signal is done, recording stops here.
+     * The caller must release it.
+     */
+    public ReceivedSignal receiveAnalogSignal() {
+        return new ReceivedSignal(getAudioEngine(), getAudioEngine().getReceivedSignal());
     }
 
     /**
-     * Get recorded analog signals when send/wait signal is done.
+     * Start reading the recording in chunks while send/wait signal is still running.
+     * Use one cursor per session, samples it read are still part of receiveAnalogSignal.
      */
-    public short[] receiveAnalogSignal() {
-        return mAudioEngine.getReceivedSignal();
+    public ReceivedSignalCursor openReceivedSignalCursor() {
+        return new ReceivedSignalCursor(getAudioEngine());
     }
 
     /**
-     * Get all partition indexes.
+     * Get all partition indexes, in one read of the engine's table.
      *
      * @return A 2d array that 1st dimension is partition number, and the 2nd is the type.
      */
     public int[][] getPartitionsIndex() {
-        int[][] result = new int[MAX_PARTITIONS_NUMBER][3];
-        for (int i = 0; i < MAX_PARTITIONS_NUMBER; i++) {
-            int[] index = mAudioEngine.getPartitionIndex(i);
-            result[i][PARTITION_STATE_HANDSHAKE_START] = index[PARTITION_STATE_HANDSHAKE_START];
-            result[i][PARTITION_STATE_HANDSHAKE_END] = index[PARTITION_STATE_HANDSHAKE_END];
-            result[i][PARTITION_STATE_MESSAGE_END] = index[PARTITION_STATE_MESSAGE_END];
-            Log.i(TAG,
-                    "getPartitionsIndex, i: " + i + ", " + result[i][0] + "," + result[i][1] + ","
-                            + result[i][2]);
+        int numOfPartitions = getAudioEngine().snapshotPartitionIndex(mPartitionIndexTable);
+        IntBuffer table = mPartitionIndexTable.asIntBuffer();
+        int[][] result = new int[MAX_PARTITIONS_NUMBER][AudioEngine.PARTITION_INDEX_FIELDS];
+        for (int i = 0; i < Math.min(numOfPartitions, MAX_PARTITIONS_NUMBER); i++) {
+            table.position(i * AudioEngine.PARTITION_INDEX_FIELDS);
+            table.get(result[i]);
         }
         return result;
     }
 
     public void stop() {
-        mAudioEngine.stopEngine();
+        getAudioEngine().stopEngine();
     }
 
     /**
      * Round trip time for receiving my output from audio jack.
      */
     public long getRTT() {
-        return mAudioEngine.getRTT();
+        return getAudioEngine().getRTT();
     }
 
     public int getStatus() {
-        return mAudioEngine.getStatus();
+        return getAudioEngine().getStatus();
+    }
+
+    /**
+     * Wait for the engine status to change from status, see AudioEngine.waitForStatusChange.
+     */
+    public int waitForStatusChange(int status, int timeoutMs) {
+        return getAudioEngine().waitForStatusChange(status, timeoutMs);
+    }
+
+    /**
+     * Wake threads blocked in waitForStatusChange, like when the user stops.
+     */
+    public void wakeStatusWaiters() {
+        getAudioEngine().wakeStatusWaiters();
+    }
+
+    /**
+     * Number of partitions that reused resampled frames from previous sessions.
+     */
+    public long getResampleCacheHitCount() {
+        return getAudioEngine().getResampleCacheHitCount();
+    }
+
+    /**
+     * Number of partitions that had to be resampled.
+     */
+    public long getResampleCacheMissCount() {
+        return getAudioEngine().getResampleCacheMissCount();
+    }
+
+    /**
+     * Open the audio streams ahead of the first session if they are wanted, see
+     * AudioEngine.openStreams.
+     */
+    public static boolean openStreams() {
+        return getStreamEngine().openStreams();
+    }
+
+    public static int getInputRate() {
+        return getStreamEngine().getInputRate();
+    }
+
+    public static int getOutputRate() {
+        return getStreamEngine().getOutputRate();
+    }
+
+    public static int getOutputFramesPerBurst() {
+        return getStreamEngine().getOutputFramesPerBurst();
+    }
+
+    /**
+     * Keep the audio streams open between sessions while the app is in use, and release the
+     * audio device while it is not, see AudioEngine.setStreamsWanted.
+     */
+    public synchronized static void setStreamsWanted(boolean wanted) {
+        sStreamsWanted = wanted;
+        if (sLibraryLoaded) {
+            getStreamEngine().setStreamsWanted(wanted);
+        }
+    }
+
+    public synchronized static boolean areStreamsWanted() {
+        return sStreamsWanted;
     }
 
     public boolean isFinished() {
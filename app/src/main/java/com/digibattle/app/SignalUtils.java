@@ -1,5 +1,13 @@
 package com.digibattle.app;
 
+import com.digibattle.app.signal.AnalogSignalView;
+import com.digibattle.app.signal.AnalogToDigitalConverter;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.DigitalSignal;
+import com.digibattle.app.signal.DigitalSignalView;
+import com.digibattle.app.signal.EdgeSignal;
+import com.digibattle.app.signal.WaveformShaper;
+
 import java.math.BigInteger;
 
 public class SignalUtils {
@@ -14,7 +22,7 @@ public class SignalUtils {
     public static final short ANALOG_FROM_VOLTAGE_LOW =
             HAS_TRANSISTOR ? Short.MAX_VALUE : Short.MIN_VALUE;
 
-    public static boolean[] analog2Digital(short[] analog, int voltageChangeThreshold) {
+    public static BitSignal analog2Digital(short[] analog, int voltageChangeThreshold) {
         if (analog == null || analog.length == 0) {
             return null;
         }
@@ -23,93 +31,119 @@ public class SignalUtils {
         return analog2Digital(analog, voltageChangeThreshold, firstSignal);
     }
 
-    public static boolean[] analog2Digital(short[] analog, int voltageChangeThreshold,
+    public static BitSignal analog2Digital(short[] analog, int voltageChangeThreshold,
             boolean initValue) {
         if (analog == null || analog.length == 0) {
             return null;
         }
-        boolean result[] = new boolean[analog.length];
-        result[0] = initValue;
-        for (int i = 0; i < analog.length - 1; i++) {
-            int diff = ((int) analog[i + 1]) - analog[i];
-            if (diff > voltageChangeThreshold) {
-                result[i + 1] = true;
-            } else if (diff < -voltageChangeThreshold) {
-                result[i + 1] = false;
-            } else {
-                result[i + 1] = result[i];
-            }
+        return analog2Digital(AnalogSignalView.wrap(analog), voltageChangeThreshold, initValue);
+    }
+
+    /**
+     * Same as analog2Digital(short[], int), samples are read in place.
+     */
+    public static BitSignal analog2Digital(AnalogSignalView analog, int voltageChangeThreshold) {
+        if (analog == null || analog.length() == 0) {
+            return null;
         }
-        return result;
+        boolean firstSignal = analog.get(0) > DigiBattleConfig.voltageChangeThreshold;
+        return analog2Digital(analog, voltageChangeThreshold, firstSignal);
     }
 
-    public static short[][] digital2Analog(boolean[][] digital) {
-        short result[][] = new short[digital.length][];
-        for (int i = 0; i < digital.length; i++) {
-            result[i] = digital2Analog(digital[i]);
+    public static BitSignal analog2Digital(AnalogSignalView analog, int voltageChangeThreshold,
+            boolean initValue) {
+        if (analog == null || analog.length() == 0) {
+            return null;
         }
-        return result;
+        AnalogToDigitalConverter converter = new AnalogToDigitalConverter(voltageChangeThreshold,
+                new BitSignal(analog.length()));
+        converter.reset(initValue);
+        converter.process(analog);
+        return converter.getOutput();
     }
 
-    public static short[] digital2Analog(boolean[] digital) {
-        short result[] = new short[digital.length];
-        for (int i = 0; i < digital.length; i++) {
-            result[i] = digital[i] ? ANALOG_FROM_VOLTAGE_HIGH : ANALOG_FROM_VOLTAGE_LOW;
+    private static volatile WaveformShaper sWaveformShaper;
+
+    /**
+     * Get the shaper of current DigiBattleConfig settings, it is rebuilt when they change.
+     */
+    public static WaveformShaper getWaveformShaper() {
+        WaveformShaper shaper = sWaveformShaper;
+        if (shaper == null || shaper.getKey() != getAnalogShapingKey()) {
             // Magic comes, it works unless it doesn't.
             // We cannot keep the output voltage always high / low in speaker output,
             // so what we are trying to do here is:
             // Do not set the value to max / min at the beginning of signal change, we set it as
             // INIT_RATIO * value and keep increasing / decreasing until it reaches max/min,
             // so we "hope" we can keep the output high/low voltage longer.
-            if (HAS_TRANSISTOR) {
-                if (i == 0 || digital[i - 1] != digital[i]) {
-                    result[i] = (short) (result[i] * DigiBattleConfig.analogInitRatio);
-                } else {
-                    if (digital[i]) {
-                        if (result[i - 1] > Short.MIN_VALUE + DigiBattleConfig.analogDelta) {
-                            result[i] = (short) (result[i - 1] - DigiBattleConfig.analogDelta);
-                        } else {
-                            result[i] = result[i - 1];
-                        }
-                    } else {
-                        if (result[i - 1] < Short.MAX_VALUE - DigiBattleConfig.analogDelta) {
-                            result[i] = (short) (result[i - 1] + DigiBattleConfig.analogDelta);
-                        } else {
-                            result[i] = result[i - 1];
-                        }
-                    }
-                }
-            }
+            shaper = new WaveformShaper(ANALOG_FROM_VOLTAGE_HIGH, ANALOG_FROM_VOLTAGE_LOW,
+                    DigiBattleConfig.analogInitRatio, DigiBattleConfig.analogDelta,
+                    HAS_TRANSISTOR);
+            sWaveformShaper = shaper;
         }
-        return result;
+        return shaper;
     }
 
-    // Get all signals from start to end.
-    public static short[] getPartition(short[] analog, int partitionStart, int partitionEnd) {
-        if (analog == null || analog.length == 0) {
-            return new short[1];
-        }
-        if (partitionStart >= partitionEnd) {
-            return new short[1];
+    /**
+     * Get a key of current analog shaping settings, the key changes whenever digital2Analog
+     * would shape the same digital signal differently.
+     */
+    public static long getAnalogShapingKey() {
+        return ((long) Float.floatToIntBits(DigiBattleConfig.analogInitRatio) << 32)
+                | (DigiBattleConfig.analogDelta & 0xffffffffL);
+    }
 
+    public static short[][] digital2Analog(BitSignal[] digital) {
+        WaveformShaper shaper = getWaveformShaper();
+        short result[][] = new short[digital.length][];
+        for (int i = 0; i < digital.length; i++) {
+            result[i] = shaper.render(digital[i]);
         }
-        short[] result = new short[partitionEnd - partitionStart + 1];
-        System.arraycopy(analog, partitionStart, result, 0, result.length);
         return result;
     }
 
-    // Get all signals from start to end.
-    public static boolean[] getPartition(boolean[] digital, int partitionStart, int partitionEnd) {
-        if (digital == null) {
-            return new boolean[0];
+    public static short[] digital2Analog(BitSignal digital) {
+        return getWaveformShaper().render(digital);
+    }
+
+    /**
+     * Get a view of all signals from start to end (inclusive), nothing is copied.
+     * Bad bounds give an empty view.
+     */
+    public static AnalogSignalView getPartition(short[] analog, int partitionStart,
+            int partitionEnd) {
+        if (analog == null) {
+            return AnalogSignalView.empty();
+        }
+        return getPartition(AnalogSignalView.wrap(analog), partitionStart, partitionEnd);
+    }
+
+    public static AnalogSignalView getPartition(AnalogSignalView analog, int partitionStart,
+            int partitionEnd) {
+        if (analog == null || partitionStart < 0 || partitionStart >= partitionEnd) {
+            return AnalogSignalView.empty();
+        }
+        int end = Math.min(partitionEnd + 1, analog.length());
+        if (partitionStart >= end) {
+            return AnalogSignalView.empty();
         }
-        if (partitionStart > partitionEnd) {
-            return new boolean[0];
+        return analog.slice(partitionStart, end);
+    }
 
+    /**
+     * Get a view of all signals from start to end (inclusive), nothing is copied.
+     * Bad bounds give an empty signal.
+     */
+    public static DigitalSignal getPartition(DigitalSignal digital, int partitionStart,
+            int partitionEnd) {
+        if (digital == null || partitionStart < 0 || partitionStart > partitionEnd) {
+            return new EdgeSignal(0);
         }
-        boolean[] result = new boolean[partitionEnd - partitionStart + 1];
-        System.arraycopy(digital, partitionStart, result, 0, result.length);
-        return result;
+        int end = Math.min(partitionEnd + 1, digital.length());
+        if (partitionStart >= end) {
+            return new EdgeSignal(0);
+        }
+        return new DigitalSignalView(digital, partitionStart, end - partitionStart);
     }
 
     // For debugging view purpose.
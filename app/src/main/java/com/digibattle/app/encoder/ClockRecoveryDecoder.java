@@ -0,0 +1,143 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.DigitalSignal;
+
+/**
+ * Decoder that follows the partner's clock instead of trusting the nominal message length.
+ *
+ * Every message starts with a rising edge, so the rising edges of a partition are matched to
+ * their message number and a least squares fit of (message number, edge position) gives the
+ * actual message period and phase. Bits are then read by integrating over the discriminating
+ * window of each message, placed on the recovered clock.
+ */
+public class ClockRecoveryDecoder {
+
+    // Max distance of an edge to where we expect it, in messages.
+    private static final double MAX_EDGE_ERROR = 0.25;
+    // Max accepted difference between recovered and nominal period.
+    private static final double MAX_PERIOD_ERROR = 0.1;
+
+    /**
+     * Decoded word plus the recovered clock of the partition.
+     */
+    public static class Result extends DecodedWord {
+        private final double mPeriod;
+        private final double mPhase;
+        private final float mDriftPpm;
+
+        Result(int word, float[] confidence, double period, double phase, float driftPpm) {
+            super(word, confidence);
+            mPeriod = period;
+            mPhase = phase;
+            mDriftPpm = driftPpm;
+        }
+
+        /**
+         * Recovered message length in input samples.
+         */
+        public double getPeriod() {
+            return mPeriod;
+        }
+
+        /**
+         * Recovered start of the first message in input samples.
+         */
+        public double getPhase() {
+            return mPhase;
+        }
+
+        /**
+         * Partner clock drift against our input clock, in parts per million. Positive means
+         * the partner is slower than nominal.
+         */
+        public float getDriftPpm() {
+            return mDriftPpm;
+        }
+    }
+
+    private final DigimonMessageEncoder mEncoder;
+    private final int mInputRate;
+    private final double mNominalPeriod;
+    private final double mNominalPhase;
+    // Discriminating window of a message, as a fraction of the message length.
+    private final double mWindowStart;
+    private final double mWindowEnd;
+
+    public ClockRecoveryDecoder(DigimonMessageEncoder encoder, int inputRate) {
+        mEncoder = encoder;
+        mInputRate = inputRate;
+        double ratio = ((double) inputRate) / encoder.rate();
+        int oneMessageSize = encoder.getOneMessageSize();
+        mNominalPeriod = oneMessageSize * ratio;
+        mNominalPhase = encoder.startMessageSignals().length() * ratio;
+        mWindowStart = ((double) encoder.encode(false).runLength(0)) / oneMessageSize;
+        mWindowEnd = ((double) encoder.encode(true).runLength(0)) / oneMessageSize;
+    }
+
+    public DigimonMessageEncoder getEncoder() {
+        return mEncoder;
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public Result decode(DigitalSignal digitalSignal) {
+        int bitsPerWord = DigimonMessageEncoder.BITS_PER_WORD;
+        float[] confidence = new float[bitsPerWord];
+        if (digitalSignal == null) {
+            return new Result(0, confidence, mNominalPeriod, mNominalPhase, 0f);
+        }
+        double period = mNominalPeriod;
+        double phase = mNominalPhase;
+        // Running sums for least squares fit of position = phase + n * period.
+        double sumN = 0;
+        double sumP = 0;
+        double sumNN = 0;
+        double sumNP = 0;
+        int count = 0;
+        int lastN = -1;
+        int length = digitalSignal.length();
+        int p = length > 0 && digitalSignal.get(0) ? digitalSignal.nextClearBit(0) : 0;
+        while (p < length) {
+            p = digitalSignal.nextSetBit(p);
+            if (p >= length) {
+                break;
+            }
+            int n = (int) Math.round((p - phase) / period);
+            // First edge near an unseen message wins, later ones are glitches in the message.
+            if (n > lastN && n < bitsPerWord
+                    && Math.abs(p - phase - n * period) <= MAX_EDGE_ERROR * period) {
+                lastN = n;
+                sumN += n;
+                sumP += p;
+                sumNN += (double) n * n;
+                sumNP += (double) n * p;
+                count++;
+                if (count == 1) {
+                    phase = p - n * period;
+                } else {
+                    double newPeriod = (count * sumNP - sumN * sumP)
+                            / (count * sumNN - sumN * sumN);
+                    if (Math.abs(newPeriod / mNominalPeriod - 1) <= MAX_PERIOD_ERROR) {
+                        period = newPeriod;
+                    }
+                    phase = (sumP - period * sumN) / count;
+                }
+            }
+            p = digitalSignal.nextClearBit(p);
+        }
+        int word = 0;
+        for (int i = 0; i < bitsPerWord; i++) {
+            double messageStart = phase + i * period;
+            float highRatio = DigimonMessageEncoder.getHighRatio(digitalSignal,
+                    messageStart + mWindowStart * period, messageStart + mWindowEnd * period);
+            if (highRatio > 0.5f) {
+                word |= 1 << i;
+            }
+            confidence[i] = highRatio < 0 ? 0f : Math.abs(2f * highRatio - 1f);
+        }
+        float driftPpm = (float) ((period / mNominalPeriod - 1) * 1e6);
+        return new Result(word, confidence, period, phase, driftPpm);
+    }
+}
@@ -0,0 +1,39 @@
+package com.digibattle.app.encoder;
+
+/**
+ * A decoded 16 bits word, with how sure the decoder is about each bit.
+ */
+public class DecodedWord {
+
+    private final int mWord;
+    private final float[] mConfidence;
+
+    /**
+     * @param word       Decoded bits, bit i is the i-th message (LSB first).
+     * @param confidence Confidence of each bit, from 0 (no idea) to 1 (certain).
+     */
+    public DecodedWord(int word, float[] confidence) {
+        mWord = word;
+        mConfidence = confidence;
+    }
+
+    public int getWord() {
+        return mWord;
+    }
+
+    public boolean getBit(int index) {
+        return ((mWord >> index) & 1) != 0;
+    }
+
+    public float getConfidence(int index) {
+        return mConfidence[index];
+    }
+
+    public float getMinConfidence() {
+        float min = 1f;
+        for (float c : mConfidence) {
+            min = Math.min(min, c);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,149 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.DigitalSignal;
+
+/**
+ * Find out which toy family sent a partition by comparing its timing with the timing model
+ * of every candidate encoder.
+ *
+ * Measured from the recording: handshake length, start signal high and low widths, average
+ * message period and high width of each message. Toy clocks drift by a few percent, which
+ * stretches all of them alike, so every length is taken in message periods before it is
+ * compared. A model scores the sum of errors, so the lowest score wins.
+ */
+public class DeviceFamilyDetector {
+
+    // Another family must score at least this much better than the expected one to replace it.
+    // The closest families, Original and Pendulum sending only zero bits, only differ by the
+    // start signal low width, 0.05 periods. Half of that is left for measurement noise.
+    private static final float MIN_SCORE_GAIN = 0.025f;
+
+    private final DigimonMessageEncoder[] mCandidates;
+
+    public DeviceFamilyDetector() {
+        this(new DigimonMessageEncoder[]{new DigimonOriginalEncoder(),
+                new DigimonPendulumEncoder(), new DigimonMiniEncoder()});
+    }
+
+    public DeviceFamilyDetector(DigimonMessageEncoder[] candidates) {
+        mCandidates = candidates;
+    }
+
+    // Timing of one partition in input samples.
+    private static class Timing {
+        int handshake;
+        int startHigh;
+        int startLow;
+        double period;
+        int[] highWidth = new int[DigimonMessageEncoder.BITS_PER_WORD];
+        int numOfMessages;
+    }
+
+    /**
+     * Get the candidate that matches a partition best, or null if the partition is too broken
+     * to measure.
+     *
+     * @param digitalSignal  Whole recording.
+     * @param handshakeStart Handshake start index of the partition from the engine.
+     * @param signalEnd      Signal end index of the partition from the engine.
+     */
+    public DigimonMessageEncoder detect(DigitalSignal digitalSignal, int handshakeStart,
+            int signalEnd) {
+        return detect(digitalSignal, handshakeStart, signalEnd, null);
+    }
+
+    /**
+     * Same as detect, but keeps the candidate of the expected encoder's class unless another
+     * one clearly scores better, so a partition that fits both is not taken for another family.
+     */
+    public DigimonMessageEncoder detect(DigitalSignal digitalSignal, int handshakeStart,
+            int signalEnd, DigimonMessageEncoder expected) {
+        float[] scores = getScores(digitalSignal, handshakeStart, signalEnd);
+        if (scores == null) {
+            return null;
+        }
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] < scores[best]) {
+                best = i;
+            }
+        }
+        for (int i = 0; expected != null && i < scores.length; i++) {
+            if (mCandidates[i].getClass() == expected.getClass()
+                    && scores[i] - scores[best] < MIN_SCORE_GAIN) {
+                return mCandidates[i];
+            }
+        }
+        return mCandidates[best];
+    }
+
+    /**
+     * Score of each candidate, lower is better. Null if the partition can not be measured.
+     */
+    public float[] getScores(DigitalSignal digitalSignal, int handshakeStart, int signalEnd) {
+        Timing timing = measure(digitalSignal, handshakeStart, signalEnd);
+        if (timing == null) {
+            return null;
+        }
+        float[] scores = new float[mCandidates.length];
+        for (int i = 0; i < mCandidates.length; i++) {
+            scores[i] = score(mCandidates[i], timing);
+        }
+        return scores;
+    }
+
+    private static Timing measure(DigitalSignal signal, int handshakeStart, int signalEnd) {
+        int length = Math.min(signal.length(), signalEnd);
+        if (handshakeStart <= 0 || handshakeStart >= length) {
+            return null;
+        }
+        Timing timing = new Timing();
+        // The engine flags handshake after some low samples, so look back for where it starts.
+        int handshakeLowStart = signal.previousSetBit(handshakeStart) + 1;
+        int startSignalRise = signal.nextSetBit(handshakeStart);
+        int firstMessageRise = signal.nextSetBit(signal.nextClearBit(startSignalRise));
+        if (firstMessageRise >= length) {
+            return null;
+        }
+        int startSignalFall = signal.nextClearBit(startSignalRise);
+        timing.handshake = startSignalRise - handshakeLowStart;
+        timing.startHigh = startSignalFall - startSignalRise;
+        timing.startLow = firstMessageRise - startSignalFall;
+        int rise = firstMessageRise;
+        int lastRise = rise;
+        while (rise < length && timing.numOfMessages < DigimonMessageEncoder.BITS_PER_WORD) {
+            int fall = signal.nextClearBit(rise);
+            timing.highWidth[timing.numOfMessages++] = Math.min(fall, length) - rise;
+            lastRise = rise;
+            rise = signal.nextSetBit(fall);
+        }
+        if (timing.numOfMessages < 2) {
+            return null;
+        }
+        timing.period = ((double) lastRise - firstMessageRise) / (timing.numOfMessages - 1);
+        return timing;
+    }
+
+    // Errors in message periods, the toy's own clock cancels out.
+    private static float score(DigimonMessageEncoder encoder, Timing timing) {
+        double period = encoder.getOneMessageSize();
+        BitSignal startSignal = encoder.startMessageSignals();
+        int startHigh = startSignal.runLength(0);
+        double score = Math.abs(timing.handshake / timing.period
+                - encoder.getHandshakeSize() / period)
+                / (encoder.getHandshakeSize() / period)
+                + Math.abs(timing.startHigh / timing.period - startHigh / period)
+                + Math.abs(timing.startLow / timing.period
+                - (startSignal.length() - startHigh) / period);
+        double highWidth0 = encoder.encode(false).runLength(0) / period;
+        double highWidth1 = encoder.encode(true).runLength(0) / period;
+        double widthError = 0;
+        for (int i = 0; i < timing.numOfMessages; i++) {
+            double width = timing.highWidth[i] / timing.period;
+            widthError += Math.min(Math.abs(width - highWidth0), Math.abs(width - highWidth1));
+        }
+        score += widthError / timing.numOfMessages;
+        return (float) score;
+    }
+}
@@ -1,13 +1,30 @@
 package com.digibattle.app.encoder;
 
-import java.math.BigInteger;
+import com.digibattle.app.SignalUtils;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.DigitalSignal;
+import com.digibattle.app.signal.FrameBuffer;
 
 public abstract class DigimonMessageEncoder {
-    public abstract boolean[] encode(boolean b);
 
-    public abstract boolean[] handshake();
+    // A hex char carries 4 bits, and a digimon message (word) is 4 hex chars.
+    public static final int BITS_PER_NIBBLE = 4;
+    public static final int NIBBLES_PER_WORD = 4;
 
-    public abstract boolean[] startMessageSignals();
+    public static final int BITS_PER_WORD = BITS_PER_NIBBLE * NIBBLES_PER_WORD;
+
+    public abstract BitSignal encode(boolean b);
+
+    /**
+     * Get the ready made signals of a 4 bits value, LSB goes out first.
+     *
+     * @param nibble Value from 0x0 to 0xf.
+     */
+    public abstract BitSignal encodeNibble(int nibble);
+
+    public abstract BitSignal handshake();
+
+    public abstract BitSignal startMessageSignals();
 
     public abstract int rate();
 
@@ -15,51 +32,173 @@ public abstract class DigimonMessageEncoder {
 
     public abstract int getMessageMarkerOffset();
 
-    public boolean[] encode(String hexString) {
-        String binary = new BigInteger(hexString, 16).toString(2);
-        binary = (String.format("%16s", binary).replace(" ", "0"));
-        int binaryLength = binary.length();
-        int oneMessageSize = getOneMessageSize();
-        boolean[] result = new boolean[binaryLength * oneMessageSize];
-        for (int i = 0; i < binaryLength; i++) {
-            boolean[] hexResult = encode(binary.charAt(binaryLength - i - 1) == '1');
-            System.arraycopy(hexResult, 0, result, i * oneMessageSize, oneMessageSize);
-        }
+    // Analog version of handshake, start signals and nibble tables, shaped by SignalUtils.
+    private static class AnalogTables {
+        long shapingKey;
+        short[] handshake;
+        short[] startSignals;
+        short[][] nibbleSignals;
+    }
+
+    private volatile AnalogTables mAnalogTables;
+    private volatile WordDecoder mWordDecoder;
+
+    public BitSignal encode(String hexString) {
+        int numOfNibbles = Math.max(hexString.length(), NIBBLES_PER_WORD);
+        BitSignal result = new BitSignal(numOfNibbles * BITS_PER_NIBBLE * getOneMessageSize());
+        encodeMessageInto(hexString, result, 0);
         return result;
     }
 
-    public boolean[] encodeWithHandshakeAndStartSignal(String hexString) {
-        boolean[] handshake = handshake();
-        boolean[] startSignals = startMessageSignals();
-        boolean[] encoded = encode(hexString);
-        boolean[] result = new boolean[handshake.length + encoded.length + startSignals.length];
-        System.arraycopy(handshake, 0, result, 0, handshake.length);
-        System.arraycopy(startSignals, 0, result, handshake.length, startSignals.length);
-        System.arraycopy(encoded, 0, result, handshake.length + startSignals.length,
-                encoded.length);
+    public BitSignal encodeWithHandshakeAndStartSignal(String hexString) {
+        int handshakeSize = getHandshakeSize();
+        BitSignal startSignals = startMessageSignals();
+        BitSignal result = new BitSignal(getEncodedSize(hexString));
+        // Handshake is all low, which is already there.
+        result.copyFrom(startSignals, 0, handshakeSize, startSignals.length());
+        encodeMessageInto(hexString, result, handshakeSize + startSignals.length());
         return result;
     }
 
-    public boolean[] decodeDigitalSignal(int inputRate, boolean[] digitalSignal) {
+    /**
+     * Get the number of analog samples encodeInto writes for the hex message.
+     */
+    public int getEncodedSize(String hexString) {
+        int numOfNibbles = Math.max(hexString.length(), NIBBLES_PER_WORD);
+        return getHandshakeSize() + startMessageSignals().length()
+                + numOfNibbles * BITS_PER_NIBBLE * getOneMessageSize();
+    }
+
+    /**
+     * Same as SignalUtils.digital2Analog(encodeWithHandshakeAndStartSignal(hexString)), but
+     * writes the analog samples straight into dst without any intermediate arrays.
+     *
+     * @param dst    Output buffer, must have getEncodedSize(hexString) samples from offset.
+     * @param offset Index in dst to write the first sample.
+     * @return Number of samples written.
+     */
+    public int encodeInto(String hexString, short[] dst, int offset) {
+        AnalogTables tables = getAnalogTables();
+        int index = offset;
+        System.arraycopy(tables.handshake, 0, dst, index, tables.handshake.length);
+        index += tables.handshake.length;
+        System.arraycopy(tables.startSignals, 0, dst, index, tables.startSignals.length);
+        index += tables.startSignals.length;
+        int length = hexString.length();
+        int numOfNibbles = Math.max(length, NIBBLES_PER_WORD);
+        for (int i = 0; i < numOfNibbles; i++) {
+            int nibble = i < length ? hexCharToNibble(hexString.charAt(length - i - 1)) : 0;
+            short[] nibbleSignals = tables.nibbleSignals[nibble];
+            System.arraycopy(nibbleSignals, 0, dst, index, nibbleSignals.length);
+            index += nibbleSignals.length;
+        }
+        return index - offset;
+    }
+
+    /**
+     * Encode all partitions into one frame buffer, see encodeInto.
+     *
+     * @param hexStringPartition Array of 4 char hex messages, one per partition.
+     */
+    public FrameBuffer encodeFrames(String[] hexStringPartition) {
+        int[] offsets = new int[hexStringPartition.length + 1];
+        for (int i = 0; i < hexStringPartition.length; i++) {
+            offsets[i + 1] = offsets[i] + getEncodedSize(hexStringPartition[i]);
+        }
+        short[] samples = new short[offsets[hexStringPartition.length]];
+        for (int i = 0; i < hexStringPartition.length; i++) {
+            encodeInto(hexStringPartition[i], samples, offsets[i]);
+        }
+        return new FrameBuffer(samples, offsets);
+    }
+
+    // Every message and start signal begins with a low -> high change, so shaping them one by
+    // one gives exactly the same samples as shaping the whole partition.
+    private AnalogTables getAnalogTables() {
+        long shapingKey = SignalUtils.getAnalogShapingKey();
+        AnalogTables tables = mAnalogTables;
+        if (tables != null && tables.shapingKey == shapingKey) {
+            return tables;
+        }
+        tables = new AnalogTables();
+        tables.shapingKey = shapingKey;
+        tables.handshake = SignalUtils.digital2Analog(new BitSignal(getHandshakeSize()));
+        tables.startSignals = SignalUtils.digital2Analog(startMessageSignals());
+        tables.nibbleSignals = new short[1 << BITS_PER_NIBBLE][];
+        for (int nibble = 0; nibble < tables.nibbleSignals.length; nibble++) {
+            tables.nibbleSignals[nibble] = SignalUtils.digital2Analog(encodeNibble(nibble));
+        }
+        mAnalogTables = tables;
+        return tables;
+    }
+
+    // Copy one ready made nibble signal per hex char, the last char (LSB) goes out first.
+    private void encodeMessageInto(String hexString, BitSignal dst, int offset) {
+        int length = hexString.length();
+        int numOfNibbles = Math.max(length, NIBBLES_PER_WORD);
+        int nibbleSize = BITS_PER_NIBBLE * getOneMessageSize();
+        for (int i = 0; i < numOfNibbles; i++) {
+            int nibble = i < length ? hexCharToNibble(hexString.charAt(length - i - 1)) : 0;
+            dst.copyFrom(encodeNibble(nibble), 0, offset + i * nibbleSize, nibbleSize);
+        }
+    }
+
+    public int getHandshakeSize() {
+        return handshake().length();
+    }
+
+    /**
+     * Get the decoder of this encoder for signals recorded at inputRate, the last one is kept
+     * so it is only built when the rate changes.
+     */
+    public WordDecoder getWordDecoder(int inputRate) {
+        WordDecoder decoder = mWordDecoder;
+        if (decoder == null || decoder.getInputRate() != inputRate) {
+            decoder = new WordDecoder(this, inputRate);
+            mWordDecoder = decoder;
+        }
+        return decoder;
+    }
+
+    public boolean[] decodeDigitalSignal(int inputRate, DigitalSignal digitalSignal) {
         if (digitalSignal == null) {
             return null;
         }
-        int rate = rate();
-        double interval = (((double) getOneMessageSize()) * inputRate / rate);
-        int initOffset = (int) 1f * startMessageSignals().length * inputRate / rate;
-        int markerOffset = (int) 1f * getMessageMarkerOffset() * inputRate / rate;
-        double i = initOffset + markerOffset;
-        int index = 0;
-        int numOfResults = 16;
-        boolean[] result = new boolean[numOfResults];
-        while (i < digitalSignal.length && index < 16) {
-            result[index] = digitalSignal[(int) i];
-            i = i + interval;
-            index++;
+        int bits = getWordDecoder(inputRate).decodeMarkers(digitalSignal);
+        boolean[] result = new boolean[BITS_PER_WORD];
+        for (int i = 0; i < BITS_PER_WORD; i++) {
+            result[i] = ((bits >> i) & 1) != 0;
         }
         return result;
     }
 
+    /**
+     * Decode a word by counting high samples over the part of each message where a 0 message is
+     * already low but a 1 message is still high, so a single glitch can not flip a bit.
+     * Confidence of a bit is how far the high ratio in its window is from 50%.
+     */
+    public DecodedWord decodeWord(int inputRate, DigitalSignal digitalSignal) {
+        float[] confidence = new float[BITS_PER_WORD];
+        if (digitalSignal == null) {
+            return new DecodedWord(0, confidence);
+        }
+        int word = getWordDecoder(inputRate).decode(digitalSignal, confidence);
+        return new DecodedWord(word, confidence);
+    }
+
+    /**
+     * Get the ratio of high samples in [from, to) of signal, or -1 if the range is empty.
+     */
+    static float getHighRatio(DigitalSignal signal, double from, double to) {
+        int length = signal.length();
+        int start = Math.max(Math.min((int) Math.ceil(from), length), 0);
+        int end = Math.max(Math.min((int) to, length), start);
+        if (end == start) {
+            return -1f;
+        }
+        return ((float) signal.countHigh(start, end)) / (end - start);
+    }
+
     public String getHexMessage(boolean[] digitalMessage) {
         if (digitalMessage == null) {
             return "";
@@ -67,34 +206,85 @@ public abstract class DigimonMessageEncoder {
         if (digitalMessage.length != 16) {
             return "Invalid size: " + digitalMessage.length;
         }
-        String str = "";
-        for (boolean b : digitalMessage) {
-            str = (b ? "1" : "0") + str;
+        int word = 0;
+        for (int i = 0; i < BITS_PER_WORD; i++) {
+            if (digitalMessage[i]) {
+                word |= 1 << i;
+            }
         }
-        int decimal = Integer.parseInt(str, 2);
-        String result = Integer.toString(decimal, 16);
-        result = String.format("%4s", result).replace(" ", "0");
-        return result;
+        return toHexString(word);
+    }
+
+    /**
+     * Format a word as 4 lower case hex chars, like 0f3a.
+     */
+    public static String toHexString(int word) {
+        char[] result = new char[NIBBLES_PER_WORD];
+        for (int i = NIBBLES_PER_WORD - 1; i >= 0; i--) {
+            result[i] = Character.forDigit(word & 0xf, 16);
+            word >>>= BITS_PER_NIBBLE;
+        }
+        return new String(result);
     }
 
     public int[] getMarkerPosition(int inputRate) {
-        int rate = rate();
-        double interval = (((double) getOneMessageSize()) * inputRate / rate);
-        int initOffset = (int) 1f * startMessageSignals().length * inputRate / rate;
-        int markerOffset = (int) 1f * getMessageMarkerOffset() * inputRate / rate;
-        double i = initOffset + markerOffset;
-        int index = 0;
-        int numOfResults = 16;
-        int[] result = new int[numOfResults];
-        while (index < 16) {
-            result[index] = (int) i;
-            i = i + interval;
-            index++;
+        return getWordDecoder(inputRate).getMarkerPositions();
+    }
+
+    /**
+     * Get the symbol timing for the native synthesizer in microseconds: handshake, start signal
+     * high and low, 0 message high and low, 1 message high and low.
+     *
+     * @return The timing, or null if a symbol is not a single high run followed by a low run.
+     */
+    public int[] getSymbolTimingUs() {
+        BitSignal[] symbols = new BitSignal[]{startMessageSignals(), encode(false), encode(true)};
+        int[] result = new int[1 + 2 * symbols.length];
+        result[0] = samplesToUs(getHandshakeSize());
+        for (int i = 0; i < symbols.length; i++) {
+            BitSignal symbol = symbols[i];
+            int length = symbol.length();
+            if (length == 0 || !symbol.get(0) || symbol.nextEdge(symbol.nextEdge(0)) < length) {
+                return null;
+            }
+            int high = symbol.runLength(0);
+            result[1 + 2 * i] = samplesToUs(high);
+            result[2 + 2 * i] = samplesToUs(length - high);
         }
         return result;
     }
 
+    private int samplesToUs(int samples) {
+        return (int) Math.round(samples * 1000000.0 / rate());
+    }
+
     public int messageWithSignalSignalLenInMs() {
-        return (getOneMessageSize() * 16 + startMessageSignals().length) * 1000 / rate();
+        return (getOneMessageSize() * 16 + startMessageSignals().length()) * 1000 / rate();
+    }
+
+    /**
+     * Build the table of ready made signals for all 16 nibble values, each entry has 4 messages
+     * with LSB first.
+     */
+    protected static BitSignal[] buildNibbleSignals(BitSignal message0Signals,
+            BitSignal message1Signals) {
+        int oneMessageSize = message0Signals.length();
+        BitSignal[] result = new BitSignal[1 << BITS_PER_NIBBLE];
+        for (int nibble = 0; nibble < result.length; nibble++) {
+            result[nibble] = new BitSignal(BITS_PER_NIBBLE * oneMessageSize);
+            for (int bit = 0; bit < BITS_PER_NIBBLE; bit++) {
+                BitSignal signals = ((nibble >> bit) & 1) == 1 ? message1Signals : message0Signals;
+                result[nibble].copyFrom(signals, 0, bit * oneMessageSize, oneMessageSize);
+            }
+        }
+        return result;
+    }
+
+    private static int hexCharToNibble(char c) {
+        int nibble = Character.digit(c, 16);
+        if (nibble < 0) {
+            throw new NumberFormatException("Bad hex char: " + c);
+        }
+        return nibble;
     }
 }
@@ -1,6 +1,6 @@
 package com.digibattle.app.encoder;
 
-import java.util.Arrays;
+import com.digibattle.app.signal.BitSignal;
 
 public class DigimonOriginalEncoder extends DigimonMessageEncoder {
 
@@ -26,6 +26,12 @@ public class DigimonOriginalEncoder extends DigimonMessageEncoder {
             true, false, false, false, false
     };
 
+    static final BitSignal MESSAGE_1_BITS = BitSignal.fromBooleanArray(MESSAGE_1_SIGNALS);
+    static final BitSignal MESSAGE_0_BITS = BitSignal.fromBooleanArray(MESSAGE_0_SIGNALS);
+    static final BitSignal START_MESSAGE_BITS =
+            BitSignal.fromBooleanArray(START_MESSAGE_SIGNALS);
+    static final BitSignal[] NIBBLE_SIGNALS = buildNibbleSignals(MESSAGE_0_BITS, MESSAGE_1_BITS);
+
     public static final int HANDSHAKE_SIZE = 287; // (2703-130)*4800/48000
     // public static final int HANDSHAKE_SIZE = 219; // 0.0625f * rate()
     public static final int RATE = 4800;
@@ -34,27 +40,35 @@ public class DigimonOriginalEncoder extends DigimonMessageEncoder {
     public static final int ONE_MESSAGE_SIZE = 20;
 
     @Override
-    public boolean[] encode(boolean b) {
+    public BitSignal encode(boolean b) {
         // Size 20
         if (b) {
-            return MESSAGE_1_SIGNALS;
+            return MESSAGE_1_BITS;
         } else {
-            return MESSAGE_0_SIGNALS;
+            return MESSAGE_0_BITS;
         }
     }
 
     @Override
-    public boolean[] startMessageSignals() {
-        return START_MESSAGE_SIGNALS;
+    public BitSignal encodeNibble(int nibble) {
+        return NIBBLE_SIGNALS[nibble];
+    }
+
+    @Override
+    public BitSignal startMessageSignals() {
+        return START_MESSAGE_BITS;
     }
 
     @Override
-    public boolean[] handshake() {
+    public BitSignal handshake() {
         // 0.0625s
-        // boolean[] result = new boolean[(int) (0.0625f * rate())];
-        boolean[] result = new boolean[HANDSHAKE_SIZE];
-        Arrays.fill(result, false);
-        return result;
+        // return new BitSignal((int) (0.0625f * rate()));
+        return new BitSignal(HANDSHAKE_SIZE);
+    }
+
+    @Override
+    public int getHandshakeSize() {
+        return HANDSHAKE_SIZE;
     }
 
     @Override
@@ -0,0 +1,141 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.SignalUtils;
+import com.digibattle.app.signal.FrameBuffer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of encoded analog partitions (handshake + start signals + message), keyed by encoder
+ * class, 16 bits word and analog shaping settings.
+ *
+ * Each entry has an unique id which is passed to the audio engine as the partition key, so
+ * the engine can cache the resampled version of it per output rate too.
+ */
+public class EncodedWaveformCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static EncodedWaveformCache sInstance;
+
+    private static class Key {
+        final Class<?> encoderClass;
+        final long shapingKey;
+        final int word;
+
+        Key(Class<?> encoderClass, long shapingKey, int word) {
+            this.encoderClass = encoderClass;
+            this.shapingKey = shapingKey;
+            this.word = word;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return encoderClass == other.encoderClass && shapingKey == other.shapingKey
+                    && word == other.word;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = encoderClass.hashCode();
+            result = 31 * result + (int) (shapingKey ^ (shapingKey >>> 32));
+            return 31 * result + word;
+        }
+    }
+
+    private static class CachedPartition {
+        final int id;
+        final short[] samples;
+
+        CachedPartition(int id, short[] samples) {
+            this.id = id;
+            this.samples = samples;
+        }
+    }
+
+    private final LinkedHashMap<Key, CachedPartition> mEntries =
+            new LinkedHashMap<Key, CachedPartition>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, CachedPartition> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    // 0 means "do not cache" for the engine, so ids start from 1.
+    private int mNextId = 1;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    public synchronized static EncodedWaveformCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EncodedWaveformCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Same as encoder.encodeFrames, but reuses encoded partitions from the previous calls.
+     * Words that are longer than 4 hex chars are encoded without cache.
+     */
+    public FrameBuffer encodeFrames(DigimonMessageEncoder encoder, String[] hexStringPartition) {
+        int numOfPartitions = hexStringPartition.length;
+        CachedPartition[] entries = new CachedPartition[numOfPartitions];
+        int[] offsets = new int[numOfPartitions + 1];
+        int[] keys = new int[numOfPartitions];
+        for (int i = 0; i < numOfPartitions; i++) {
+            entries[i] = getEntry(encoder, hexStringPartition[i]);
+            if (entries[i] != null) {
+                keys[i] = entries[i].id;
+                offsets[i + 1] = offsets[i] + entries[i].samples.length;
+            } else {
+                offsets[i + 1] = offsets[i] + encoder.getEncodedSize(hexStringPartition[i]);
+            }
+        }
+        short[] samples = new short[offsets[numOfPartitions]];
+        for (int i = 0; i < numOfPartitions; i++) {
+            if (entries[i] != null) {
+                System.arraycopy(entries[i].samples, 0, samples, offsets[i],
+                        entries[i].samples.length);
+            } else {
+                encoder.encodeInto(hexStringPartition[i], samples, offsets[i]);
+            }
+        }
+        return new FrameBuffer(samples, offsets, keys);
+    }
+
+    private synchronized CachedPartition getEntry(DigimonMessageEncoder encoder, String hexString) {
+        if (hexString.length() > DigimonMessageEncoder.NIBBLES_PER_WORD) {
+            return null;
+        }
+        Key key = new Key(encoder.getClass(), SignalUtils.getAnalogShapingKey(),
+                Integer.parseInt(hexString, 16));
+        CachedPartition entry = mEntries.get(key);
+        if (entry != null) {
+            mHitCount++;
+            return entry;
+        }
+        mMissCount++;
+        short[] samples = new short[encoder.getEncodedSize(hexString)];
+        encoder.encodeInto(hexString, samples, 0);
+        entry = new CachedPartition(mNextId++, samples);
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+}
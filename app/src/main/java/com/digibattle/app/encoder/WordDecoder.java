@@ -0,0 +1,86 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.DigitalSignal;
+
+/**
+ * Decoder of one encoder at one input rate, with all sample positions worked out up front so
+ * decoding a word is integer only. Get it from DigimonMessageEncoder.getWordDecoder.
+ */
+public class WordDecoder {
+
+    private final int mInputRate;
+    // Single sample point of each message.
+    private final int[] mMarkerPositions = new int[DigimonMessageEncoder.BITS_PER_WORD];
+    // Window of each message where a 0 message is low but a 1 message is high, [start, end).
+    private final int[] mWindowStart = new int[DigimonMessageEncoder.BITS_PER_WORD];
+    private final int[] mWindowEnd = new int[DigimonMessageEncoder.BITS_PER_WORD];
+
+    WordDecoder(DigimonMessageEncoder encoder, int inputRate) {
+        mInputRate = inputRate;
+        int rate = encoder.rate();
+        double interval = ((double) encoder.getOneMessageSize()) * inputRate / rate;
+        int initOffset = encoder.startMessageSignals().length() * inputRate / rate;
+        int markerOffset = encoder.getMessageMarkerOffset() * inputRate / rate;
+        double windowStart = ((double) encoder.encode(false).runLength(0)) * inputRate / rate;
+        double windowEnd = ((double) encoder.encode(true).runLength(0)) * inputRate / rate;
+        double exactInitOffset = ((double) encoder.startMessageSignals().length()) * inputRate
+                / rate;
+        double markerPosition = initOffset + markerOffset;
+        for (int i = 0; i < DigimonMessageEncoder.BITS_PER_WORD; i++) {
+            mMarkerPositions[i] = (int) markerPosition;
+            markerPosition += interval;
+            double messageStart = exactInitOffset + i * interval;
+            mWindowStart[i] = (int) Math.ceil(messageStart + windowStart);
+            mWindowEnd[i] = Math.max((int) (messageStart + windowEnd), mWindowStart[i]);
+        }
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int[] getMarkerPositions() {
+        return mMarkerPositions.clone();
+    }
+
+    /**
+     * Read the word from one sample per message. Markers after the end of signal read as 0.
+     */
+    public int decodeMarkers(DigitalSignal digitalSignal) {
+        return digitalSignal.extractBits(mMarkerPositions);
+    }
+
+    /**
+     * Read the word by majority vote over the window of each message.
+     */
+    public int decode(DigitalSignal digitalSignal) {
+        return decode(digitalSignal, null);
+    }
+
+    /**
+     * Same as decode(digitalSignal), also fills the confidence of each bit from 0 to 1 if
+     * confidence is not null.
+     */
+    public int decode(DigitalSignal digitalSignal, float[] confidence) {
+        int length = digitalSignal.length();
+        int word = 0;
+        for (int i = 0; i < DigimonMessageEncoder.BITS_PER_WORD; i++) {
+            int start = Math.min(mWindowStart[i], length);
+            int end = Math.min(mWindowEnd[i], length);
+            if (end <= start) {
+                if (confidence != null) {
+                    confidence[i] = 0f;
+                }
+                continue;
+            }
+            int high = digitalSignal.countHigh(start, end);
+            if (high * 2 > end - start) {
+                word |= 1 << i;
+            }
+            if (confidence != null) {
+                confidence[i] = Math.abs(2f * high / (end - start) - 1f);
+            }
+        }
+        return word;
+    }
+}
@@ -1,6 +1,8 @@
 package com.digibattle.app.fragment;
 
+import android.app.Activity;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -11,17 +13,24 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import com.digibattle.app.AudioEngine;
 import com.digibattle.app.DigiBattleSharedPrefs;
+import com.digibattle.app.DigimonMessageFuture;
 import com.digibattle.app.DigimonMessageHelper;
 import com.digibattle.app.R;
 import com.digibattle.app.SignalProcessor;
 import com.digibattle.app.SignalUtils;
+import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.signal.AnalogSignalView;
+import com.digibattle.app.signal.DigitalSignal;
 import com.digibattle.app.view.WaveformView;
 
 import java.util.Arrays;
 
 public class AdvancedScreen extends Fragment {
 
+    private static final int PING_TIMEOUT_MS = 3000;
+
     private EditText[] mInputMsgEditText = new EditText[SignalProcessor.MAX_PARTITIONS_NUMBER / 2];
     private Button mSendMsgBtn;
     private Button mReplyMsgBtn;
@@ -34,6 +43,8 @@ public class AdvancedScreen extends Fragment {
     private WaveformView[] mPartitionWaveformView =
             new WaveformView[SignalProcessor.MAX_PARTITIONS_NUMBER];
     private DigimonMessageHelper mDigimonMessageHelper;
+    // Result on screen, released once the views no longer show it.
+    private DigimonMessageHelper.DigimonMessageResult mShownResult;
 
     public AdvancedScreen() {
         // Required empty public constructor
@@ -64,6 +75,35 @@ public class AdvancedScreen extends Fragment {
         }
     }
 
+    private final DigimonMessageFuture.Listener mShowResultListener =
+            new DigimonMessageFuture.Listener() {
+                @Override
+                public void onDone(DigimonMessageHelper.DigimonMessageResult result) {
+                    showResult(result);
+                }
+            };
+
+    // Shows each partition as soon as it is received, showResult fills in the rest later.
+    private final DigimonMessageHelper.PartitionListener mPartitionListener =
+            new DigimonMessageHelper.PartitionListener() {
+                @Override
+                public void onPartitionReceived(final int partitionNumber, int[] partitionIndex,
+                        int word) {
+                    if (partitionNumber >= mPartitionTextView.length) {
+                        return;
+                    }
+                    final String hexMsg = DigimonMessageEncoder.toHexString(word);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mPartitionTextView[partitionNumber].setText(
+                                    "Partition " + partitionNumber + ": " + hexMsg + ", "
+                                            + SignalUtils.getLSBBoolString(hexMsg));
+                        }
+                    });
+                }
+            };
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
@@ -73,22 +113,14 @@ public class AdvancedScreen extends Fragment {
         mSendMsgBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                new Thread() {
-                    public void run() {
-                        sendMsg();
-                    }
-                }.start();
+                sendMsg();
             }
         });
         mReplyMsgBtn = view.findViewById(R.id.reply_custom_msg_button);
         mReplyMsgBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                new Thread() {
-                    public void run() {
-                        replyMsg();
-                    }
-                }.start();
+                replyMsg();
             }
         });
         mClearScreenBtn = view.findViewById(R.id.clear_screen_button);
@@ -148,6 +180,12 @@ public class AdvancedScreen extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        replaceShownResult(null);
+    }
+
     private String[] getAllMsg() {
         int numberOfPartitions = 0;
         for (int i = 0; i < SignalProcessor.MAX_PARTITIONS_NUMBER / 2; i++) {
@@ -166,19 +204,18 @@ public class AdvancedScreen extends Fragment {
     private void sendMsg() {
         saveAdvancedMessages();
         String[] message = getAllMsg();
-        DigimonMessageHelper.DigimonMessageResult result = mDigimonMessageHelper.sendDigimonMessage(
-                message, new MessageListener("Sending signal..."));
-        showResult(result);
+        mDigimonMessageHelper.sendDigimonMessageAsync(message,
+                new MessageListener("Sending signal..."), mPartitionListener).addListener(
+                mShowResultListener);
     }
 
     private void replyMsg() {
         saveAdvancedMessages();
         String[] message = getAllMsg();
-        DigimonMessageHelper.DigimonMessageResult result =
-                mDigimonMessageHelper.replyDigimonMessage(message,
-                        new MessageListener("Waiting signal..."),
-                        new MessageListener("Replying..."));
-        showResult(result);
+        mDigimonMessageHelper.replyDigimonMessageAsync(message,
+                new MessageListener("Waiting signal..."),
+                new MessageListener("Replying..."), mPartitionListener).addListener(
+                mShowResultListener);
     }
 
     private void saveAdvancedMessages() {
@@ -194,9 +231,16 @@ public class AdvancedScreen extends Fragment {
     }
 
     private void showResult(final DigimonMessageHelper.DigimonMessageResult result) {
-        getActivity().runOnUiThread(new Runnable() {
+        boolean posted = runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                if (getView() == null) {
+                    // The views were destroyed meanwhile, they would never release it.
+                    if (result != null) {
+                        result.release();
+                    }
+                    return;
+                }
                 if (result == null || result instanceof DigimonMessageHelper.ErrorResult) {
                     for (int i = 0; i < SignalProcessor.MAX_PARTITIONS_NUMBER; i++) {
                         mPartitionWaveformView[i].setSamples(null, null);
@@ -205,24 +249,27 @@ public class AdvancedScreen extends Fragment {
                     }
                     mRawAnalogWaveformView.setSamples(null, null);
                     mRawAnalogWaveformView.setMarkerPosition(null);
-                    setAdvancedStatus("");
+                    setAdvancedStatus(result == null ? "" : result.getHexMsg()[0]);
+                    replaceShownResult(result);
                     return;
                 }
+                String[] hexMsg = result.getHexMsg();
+                int[] partitionMarkerPos = mDigimonMessageHelper.getMarkerPos(result.rate);
                 for (int i = 0; i < SignalProcessor.MAX_PARTITIONS_NUMBER; i++) {
-                    mPartitionTextView[i].setText("Partition " + i + ": " + result.hexMsg[i] + ", "
-                            + SignalUtils.getLSBBoolString(result.hexMsg[i]));
+                    mPartitionTextView[i].setText("Partition " + i + ": " + hexMsg[i] + ", "
+                            + SignalUtils.getLSBBoolString(hexMsg[i]));
 
-                    short[] analogPartition = SignalUtils.getPartition(result.analogSignal,
+                    AnalogSignalView analogPartition = SignalUtils.getPartition(result.analogSignal,
                             result.partitionIndex[i][1], result.partitionIndex[i][2]);
-                    boolean[] digiPartition = SignalUtils.getPartition(result.digitalSignal,
+                    DigitalSignal digiPartition = SignalUtils.getPartition(result.digitalSignal,
                             result.partitionIndex[i][1], result.partitionIndex[i][2]);
-                    int[] markerPos = mDigimonMessageHelper.getMarkerPos(result.rate);
 
-                    mPartitionWaveformView[i].setMarkerPosition(markerPos);
+                    mPartitionWaveformView[i].setMarkerPosition(partitionMarkerPos);
                     mPartitionWaveformView[i].setSamples(analogPartition, digiPartition);
                 }
                 // mRawAnalogWaveformView.setSamples(result.analogSignal, result.digitalSignal);
                 mRawAnalogWaveformView.setSamples(result.analogSignal, null);
+                replaceShownResult(result);
                 int[] markerPos = new int[result.partitionIndex.length * 3];
                 for (int j = 0; j < result.partitionIndex.length; j++) {
                     markerPos[j] = result.partitionIndex[j][0];
@@ -231,16 +278,37 @@ public class AdvancedScreen extends Fragment {
                 }
                 mRawAnalogWaveformView.setMarkerPosition(markerPos);
                 String statusOutput = "";
-                for (String s : result.hexMsg) {
+                for (String s : hexMsg) {
                     statusOutput = statusOutput + " " + s;
                 }
                 setAdvancedStatus(statusOutput);
             }
         });
+        if (!posted && result != null) {
+            result.release();
+        }
+    }
+
+    private void replaceShownResult(DigimonMessageHelper.DigimonMessageResult result) {
+        if (mShownResult != null && mShownResult != result) {
+            mShownResult.release();
+        }
+        mShownResult = result;
+    }
+
+    // Exchange threads call back after the fragment may be detached, nothing is shown then.
+    // Returns false if runnable was dropped.
+    private boolean runOnUiThread(Runnable runnable) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return false;
+        }
+        activity.runOnUiThread(runnable);
+        return true;
     }
 
     private void setAdvancedStatus(final String msg) {
-        getActivity().runOnUiThread(new Runnable() {
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 mAdvancedStatusTextView.setText(msg);
@@ -255,18 +323,16 @@ public class AdvancedScreen extends Fragment {
         SignalProcessor processor = new SignalProcessor();
         try {
             processor.sendAnalogSignal(new short[][]{pingPacket}, 48000, 1, 1, true, 0);
-            boolean done = false;
-            try {
-                for (int i = 0; i < 30; i++) {
-                    if (processor.isFinished() && processor.getRTT() > 1) {
-                        done = true;
-                        break;
-                    }
-                    Thread.sleep(100);
-                }
-            } catch (InterruptedException ignored) {
+            // Wakes up as soon as the reply ends the session, like the exchange loop.
+            long deadline = SystemClock.elapsedRealtime() + PING_TIMEOUT_MS;
+            int status = processor.getStatus();
+            long remainingMs = PING_TIMEOUT_MS;
+            while (status != AudioEngine.STATUS_FINISHED
+                    && status != AudioEngine.STATUS_NOT_INITED && remainingMs > 0) {
+                status = processor.waitForStatusChange(status, (int) remainingMs);
+                remainingMs = deadline - SystemClock.elapsedRealtime();
             }
-            if (done) {
+            if (status == AudioEngine.STATUS_FINISHED && processor.getRTT() > 1) {
                 long rtt = processor.getRTT();
                 setAdvancedStatus("Ping result: " + rtt + "ms");
             } else {
@@ -12,6 +12,7 @@ import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.TextView;
 
+import com.digibattle.app.DigimonMessageFuture;
 import com.digibattle.app.DigimonMessageHelper;
 import com.digibattle.app.R;
 import com.digibattle.app.encoder.DigimonMessageEncoder;
@@ -187,13 +188,7 @@ public abstract class Digimon20Common extends Fragment {
             public void onClick(View v) {
                 mRunning = true;
                 updateUI();
-                new Thread() {
-                    public void run() {
-                        onReplyClicked();
-                        mRunning = false;
-                        updateUI();
-                    }
-                }.start();
+                onReplyClicked();
             }
         });
 
@@ -203,13 +198,7 @@ public abstract class Digimon20Common extends Fragment {
             public void onClick(View v) {
                 mRunning = true;
                 updateUI();
-                new Thread() {
-                    public void run() {
-                        onSendClicked();
-                        mRunning = false;
-                        updateUI();
-                    }
-                }.start();
+                onSendClicked();
             }
         });
 
@@ -227,13 +216,7 @@ public abstract class Digimon20Common extends Fragment {
             public void onClick(View v) {
                 mRunning = true;
                 updateUI();
-                new Thread() {
-                    public void run() {
-                        onSendCopyClicked();
-                        mRunning = false;
-                        updateUI();
-                    }
-                }.start();
+                onSendCopyClicked();
             }
         });
 
@@ -243,13 +226,7 @@ public abstract class Digimon20Common extends Fragment {
             public void onClick(View v) {
                 mRunning = true;
                 updateUI();
-                new Thread() {
-                    public void run() {
-                        onReplyWithoutBattleClicked();
-                        mRunning = false;
-                        updateUI();
-                    }
-                }.start();
+                onReplyWithoutBattleClicked();
             }
         });
 
@@ -378,14 +355,16 @@ public abstract class Digimon20Common extends Fragment {
         int currentVolume = setMaxVolume();
         updateOutput(new String[]{"Init..."});
         final String[] message = buildBattleMessage(true, getIs2v2(), false);
-        String[] result = getDigimonMessageHelper().sendDigimonMessage(message,
-                new MessageListener("Sending signal...")).hexMsg;
-        updateOutput(message);
-        updateSignalReceived(result);
-        if (isValidResult(result)) {
-            updateOppositeInfo(result, true);
-        }
-        restoreVolume(currentVolume);
+        getDigimonMessageHelper().sendDigimonMessageAsync(message,
+                new MessageListener("Sending signal...")).addListener(
+                new ExchangeListener(message, currentVolume) {
+                    @Override
+                    protected void onMessages(String[] result) {
+                        if (isValidResult(result)) {
+                            updateOppositeInfo(result, true);
+                        }
+                    }
+                });
     }
 
     public void onReplyClicked() {
@@ -393,15 +372,17 @@ public abstract class Digimon20Common extends Fragment {
         int currentVolume = setMaxVolume();
         updateOutput(new String[]{"Init..."});
         final String[] message = buildBattleMessage(false, getIs2v2(), false);
-        String[] result = getDigimonMessageHelper().replyDigimonMessage(message,
+        getDigimonMessageHelper().replyDigimonMessageAsync(message,
                 new MessageListener("Waiting signal..."),
-                new MessageListener("Replying...")).hexMsg;
-        updateOutput(message);
-        updateSignalReceived(result);
-        if (isValidResult(result)) {
-            updateOppositeInfo(result, false);
-        }
-        restoreVolume(currentVolume);
+                new MessageListener("Replying...")).addListener(
+                new ExchangeListener(message, currentVolume) {
+                    @Override
+                    protected void onMessages(String[] result) {
+                        if (isValidResult(result)) {
+                            updateOppositeInfo(result, false);
+                        }
+                    }
+                });
     }
 
     public void onReplyWithoutBattleClicked() {
@@ -409,15 +390,17 @@ public abstract class Digimon20Common extends Fragment {
         int currentVolume = setMaxVolume();
         updateOutput(new String[]{"Init..."});
         final String[] message = buildBattleMessage(false, getIs2v2(), true);
-        String[] result = getDigimonMessageHelper().replyDigimonMessage(message,
+        getDigimonMessageHelper().replyDigimonMessageAsync(message,
                 new MessageListener("Waiting signal..."),
-                new MessageListener("Replying...")).hexMsg;
-        updateOutput(message);
-        updateSignalReceived(result);
-        if (isValidResult(result)) {
-            updateOppositeInfo(result, false);
-        }
-        restoreVolume(currentVolume);
+                new MessageListener("Replying...")).addListener(
+                new ExchangeListener(message, currentVolume) {
+                    @Override
+                    protected void onMessages(String[] result) {
+                        if (isValidResult(result)) {
+                            updateOppositeInfo(result, false);
+                        }
+                    }
+                });
     }
 
     public void onSendCopyClicked() {
@@ -425,11 +408,43 @@ public abstract class Digimon20Common extends Fragment {
         int currentVolume = setMaxVolume();
         updateOutput(new String[]{"Init..."});
         String[] message = buildCopyMessage();
-        String[] result = getDigimonMessageHelper().sendDigimonMessage(message,
-                new MessageListener("Sending signal...")).hexMsg;
-        updateOutput(message);
-        updateSignalReceived(result);
-        restoreVolume(currentVolume);
+        getDigimonMessageHelper().sendDigimonMessageAsync(message,
+                new MessageListener("Sending signal...")).addListener(
+                new ExchangeListener(message, currentVolume));
+    }
+
+    /**
+     * Shows what was sent and received when an exchange is done, then restores the volume and
+     * the buttons.
+     */
+    private class ExchangeListener implements DigimonMessageFuture.Listener {
+        private final String[] mMessage;
+        private final int mVolume;
+
+        private ExchangeListener(String[] message, int volume) {
+            mMessage = message;
+            mVolume = volume;
+        }
+
+        @Override
+        public void onDone(DigimonMessageHelper.DigimonMessageResult result) {
+            String[] hexMsg = takeHexMsg(result);
+            updateOutput(mMessage);
+            updateSignalReceived(hexMsg);
+            onMessages(hexMsg);
+            restoreVolume(mVolume);
+            mRunning = false;
+            updateUI();
+        }
+
+        protected void onMessages(String[] result) {
+        }
+    }
+
+    // Only the messages are shown here, so the recording is released right away.
+    private static String[] takeHexMsg(DigimonMessageHelper.DigimonMessageResult result) {
+        result.release();
+        return result.getHexMsg();
     }
 
     private void clearAllResult() {
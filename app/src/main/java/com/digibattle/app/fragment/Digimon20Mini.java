@@ -0,0 +1,16 @@
+package com.digibattle.app.fragment;
+
+import com.digibattle.app.encoder.DigimonMiniEncoder;
+
+/**
+ * Digimon Mini. The messages are laid out like the 20th Original ones, only the timing of the
+ * signals is different.
+ */
+public class Digimon20Mini extends Digimon20Original {
+
+    private static final String TAG = "Digimon20Mini";
+
+    public Digimon20Mini() {
+        super(new DigimonMiniEncoder());
+    }
+}
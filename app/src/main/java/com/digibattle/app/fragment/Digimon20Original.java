@@ -3,6 +3,7 @@ package com.digibattle.app.fragment;
 import android.util.Log;
 import android.view.View;
 
+import com.digibattle.app.encoder.DigimonMessageEncoder;
 import com.digibattle.app.encoder.DigimonOriginalEncoder;
 
 public class Digimon20Original extends Digimon20Common {
@@ -10,7 +11,12 @@ public class Digimon20Original extends Digimon20Common {
     private static final String TAG = "Digimon20Original";
 
     public Digimon20Original() {
-        super(new DigimonOriginalEncoder());
+        this(new DigimonOriginalEncoder());
+    }
+
+    // For toys that take the same messages with another timing.
+    protected Digimon20Original(DigimonMessageEncoder encoder) {
+        super(encoder);
     }
 
     @Override
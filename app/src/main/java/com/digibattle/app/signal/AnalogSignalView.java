@@ -0,0 +1,76 @@
+package com.digibattle.app.signal;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Read only window of an analog signal array or buffer, made without copying the samples.
+ * The backing samples must not be changed while the view is in use.
+ */
+public class AnalogSignalView {
+
+    private static final AnalogSignalView EMPTY = new AnalogSignalView(new short[0], 0, 0);
+
+    // Read with absolute gets only, so views sharing it never touch its position.
+    final ShortBuffer mBuffer;
+    final int mOffset;
+    private final int mLength;
+
+    public AnalogSignalView(short[] array, int offset, int length) {
+        this(ShortBuffer.wrap(array), offset, length);
+    }
+
+    /**
+     * @param buffer Samples from index 0 to its limit, like a direct buffer of native memory.
+     */
+    public AnalogSignalView(ShortBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException(
+                    "offset: " + offset + ", length: " + length + ", size: " + buffer.limit());
+        }
+        mBuffer = buffer;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    public static AnalogSignalView wrap(short[] array) {
+        return array == null ? EMPTY : new AnalogSignalView(array, 0, array.length);
+    }
+
+    public static AnalogSignalView wrap(ShortBuffer buffer) {
+        return buffer == null ? EMPTY : new AnalogSignalView(buffer, 0, buffer.limit());
+    }
+
+    public static AnalogSignalView empty() {
+        return EMPTY;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public short get(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+        return mBuffer.get(mOffset + index);
+    }
+
+    /**
+     * Get samples from fromIndex (inclusive) to toIndex (exclusive), sharing the same samples.
+     */
+    public AnalogSignalView slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mLength || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", length: " + mLength);
+        }
+        return new AnalogSignalView(mBuffer, mOffset + fromIndex, toIndex - fromIndex);
+    }
+
+    public short[] toArray() {
+        short[] result = new short[mLength];
+        ShortBuffer source = mBuffer.duplicate();
+        source.position(mOffset);
+        source.get(result);
+        return result;
+    }
+}
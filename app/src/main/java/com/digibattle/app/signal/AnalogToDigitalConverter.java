@@ -0,0 +1,141 @@
+package com.digibattle.app.signal;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Turns analog samples into a digital signal block by block, so a recording can be converted
+ * while it arrives instead of all at once at the end.
+ *
+ * A rise of more than the threshold between two samples turns the signal high, a drop of more
+ * than the threshold turns it low, otherwise it keeps its level. The previous sample and the
+ * level are carried over between blocks, so feeding a recording in any number of blocks gives
+ * the same result as feeding it at once.
+ */
+public class AnalogToDigitalConverter {
+
+    private final int mVoltageChangeThreshold;
+    private final BitSignal mOutput;
+
+    private boolean mStarted = false;
+    private boolean mInitValue = false;
+    private boolean mGuessInitValue = true;
+    private int mGuessThreshold = 0;
+    private short mPreviousSample = 0;
+    private boolean mValue = false;
+    // Start of the current high run that is not written to the output yet.
+    private int mHighStart = 0;
+
+    public AnalogToDigitalConverter(int voltageChangeThreshold) {
+        this(voltageChangeThreshold, new BitSignal(0));
+    }
+
+    /**
+     * @param output Signal to write into, its content is replaced. Reuse it to avoid allocations.
+     */
+    public AnalogToDigitalConverter(int voltageChangeThreshold, BitSignal output) {
+        mVoltageChangeThreshold = voltageChangeThreshold;
+        mOutput = output;
+        mOutput.setLength(0);
+    }
+
+    /**
+     * Start a new signal which first sample is initValue.
+     */
+    public void reset(boolean initValue) {
+        reset();
+        mInitValue = initValue;
+        mGuessInitValue = false;
+    }
+
+    /**
+     * Start a new signal which first sample is high if it is greater than guessThreshold.
+     */
+    public void resetWithGuess(int guessThreshold) {
+        reset();
+        mGuessThreshold = guessThreshold;
+        mGuessInitValue = true;
+    }
+
+    private void reset() {
+        mOutput.setLength(0);
+        mStarted = false;
+        mHighStart = 0;
+    }
+
+    /**
+     * Convert analog[offset] to analog[offset + length - 1] and append them to the output.
+     */
+    public void process(short[] analog, int offset, int length) {
+        process(ShortBuffer.wrap(analog), offset, length);
+    }
+
+    /**
+     * Convert all samples of the view and append them to the output.
+     */
+    public void process(AnalogSignalView analog) {
+        process(analog.mBuffer, analog.mOffset, analog.length());
+    }
+
+    /**
+     * Same as process(short[], int, int), samples are read in place with absolute gets, so a
+     * direct buffer of native memory is converted without copying it.
+     */
+    public void process(ShortBuffer analog, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int start = mOutput.length();
+        mOutput.setLength(start + length);
+        int i = 0;
+        if (!mStarted) {
+            mStarted = true;
+            mValue = mGuessInitValue ? analog.get(offset) > mGuessThreshold : mInitValue;
+            mPreviousSample = analog.get(offset);
+            mHighStart = start;
+            i = 1;
+        }
+        boolean value = mValue;
+        int previous = mPreviousSample;
+        int highStart = mHighStart;
+        int threshold = mVoltageChangeThreshold;
+        for (; i < length; i++) {
+            int sample = analog.get(offset + i);
+            int diff = sample - previous;
+            if (diff > threshold) {
+                if (!value) {
+                    value = true;
+                    highStart = start + i;
+                }
+            } else if (diff < -threshold) {
+                if (value) {
+                    value = false;
+                    mOutput.set(highStart, start + i, true);
+                }
+            }
+            previous = sample;
+        }
+        // Write the high run so far, it continues from here on the next block.
+        if (value) {
+            mOutput.set(highStart, start + length, true);
+            highStart = start + length;
+        }
+        mValue = value;
+        mPreviousSample = (short) previous;
+        mHighStart = highStart;
+    }
+
+    /**
+     * Get the converted signal so far. It is the converter's own buffer, it changes on the
+     * next process or reset call.
+     */
+    public BitSignal getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * Number of samples converted since the last reset.
+     */
+    public int getNumOfSamples() {
+        return mOutput.length();
+    }
+}
@@ -0,0 +1,291 @@
+package com.digibattle.app.signal;
+
+import java.util.Arrays;
+
+/**
+ * Digital signal packed as 1 bit per sample, true means high voltage.
+ * Sample i is stored in bit (i % 64) of word (i / 64), so scans and copies work on 64 samples at
+ * a time.
+ *
+ * All next*() functions return length() when there is no such sample.
+ */
+public class BitSignal implements DigitalSignal {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    // Bits after mLength are always 0.
+    private long[] mWords;
+    private int mLength;
+
+    /**
+     * Create an all low signal.
+     */
+    public BitSignal(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Bad length: " + length);
+        }
+        mLength = length;
+        mWords = new long[(length + BITS_PER_WORD - 1) >> ADDRESS_BITS_PER_WORD];
+    }
+
+    /**
+     * Change the length, new samples are low. Storage grows by doubling, so appending one
+     * sample at a time is cheap. Only for signals that are being built in this package.
+     */
+    void setLength(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Bad length: " + length);
+        }
+        if (length < mLength) {
+            set(length, mLength, false);
+        }
+        int numOfWords = (length + BITS_PER_WORD - 1) >> ADDRESS_BITS_PER_WORD;
+        if (numOfWords > mWords.length) {
+            mWords = Arrays.copyOf(mWords, Math.max(numOfWords, mWords.length * 2));
+        }
+        mLength = length;
+    }
+
+    public static BitSignal fromBooleanArray(boolean[] digital) {
+        BitSignal result = new BitSignal(digital.length);
+        for (int i = 0; i < digital.length; i++) {
+            if (digital[i]) {
+                result.mWords[i >> ADDRESS_BITS_PER_WORD] |= 1L << i;
+            }
+        }
+        return result;
+    }
+
+    public boolean[] toBooleanArray() {
+        boolean[] result = new boolean[mLength];
+        for (int i = nextSetBit(0); i < mLength; i = nextSetBit(i + 1)) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public boolean get(int index) {
+        checkIndex(index);
+        return (mWords[index >> ADDRESS_BITS_PER_WORD] & (1L << index)) != 0;
+    }
+
+    public void set(int index, boolean value) {
+        checkIndex(index);
+        if (value) {
+            mWords[index >> ADDRESS_BITS_PER_WORD] |= 1L << index;
+        } else {
+            mWords[index >> ADDRESS_BITS_PER_WORD] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Set samples from fromIndex (inclusive) to toIndex (exclusive) to value.
+     */
+    public void set(int fromIndex, int toIndex, boolean value) {
+        checkRange(fromIndex, toIndex);
+        if (fromIndex == toIndex) {
+            return;
+        }
+        int startWordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        int endWordIndex = (toIndex - 1) >> ADDRESS_BITS_PER_WORD;
+        long firstWordMask = WORD_MASK << fromIndex;
+        long lastWordMask = WORD_MASK >>> -toIndex;
+        if (startWordIndex == endWordIndex) {
+            setWordBits(startWordIndex, firstWordMask & lastWordMask, value);
+            return;
+        }
+        setWordBits(startWordIndex, firstWordMask, value);
+        for (int i = startWordIndex + 1; i < endWordIndex; i++) {
+            mWords[i] = value ? WORD_MASK : 0;
+        }
+        setWordBits(endWordIndex, lastWordMask, value);
+    }
+
+    /**
+     * Copy length samples from src[srcPos] to this[dstPos], 64 samples at a time.
+     * src must not be this signal.
+     */
+    public void copyFrom(BitSignal src, int srcPos, int dstPos, int length) {
+        src.checkRange(srcPos, srcPos + length);
+        checkRange(dstPos, dstPos + length);
+        for (int i = 0; i < length; i += BITS_PER_WORD) {
+            setBits(dstPos + i, src.getBits(srcPos + i), Math.min(BITS_PER_WORD, length - i));
+        }
+    }
+
+    /**
+     * Copy samples from fromIndex (inclusive) to toIndex (exclusive) as a new signal.
+     */
+    public BitSignal slice(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        BitSignal result = new BitSignal(toIndex - fromIndex);
+        result.copyFrom(this, fromIndex, 0, result.mLength);
+        return result;
+    }
+
+    public BitSignal toBitSignal() {
+        return slice(0, mLength);
+    }
+
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex >= mLength) {
+            return mLength;
+        }
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        long word = mWords[wordIndex] & (WORD_MASK << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex == mWords.length) {
+                return mLength;
+            }
+            word = mWords[wordIndex];
+        }
+    }
+
+    public int nextClearBit(int fromIndex) {
+        if (fromIndex >= mLength) {
+            return mLength;
+        }
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        long word = ~mWords[wordIndex] & (WORD_MASK << fromIndex);
+        while (true) {
+            if (word != 0) {
+                // Bits after mLength are 0, so they show up here.
+                return Math.min(mLength,
+                        (wordIndex << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word));
+            }
+            if (++wordIndex == mWords.length) {
+                return mLength;
+            }
+            word = ~mWords[wordIndex];
+        }
+    }
+
+    /**
+     * Get the last high sample at or before fromIndex, or -1 if there is none.
+     */
+    public int previousSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        checkIndex(fromIndex);
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        long word = mWords[wordIndex] & (WORD_MASK >>> -(fromIndex + 1));
+        while (true) {
+            if (word != 0) {
+                return (wordIndex + 1) * BITS_PER_WORD - 1 - Long.numberOfLeadingZeros(word);
+            }
+            if (wordIndex-- == 0) {
+                return -1;
+            }
+            word = mWords[wordIndex];
+        }
+    }
+
+    /**
+     * Get the first index after fromIndex that has a different value than fromIndex.
+     */
+    public int nextEdge(int fromIndex) {
+        return get(fromIndex) ? nextClearBit(fromIndex) : nextSetBit(fromIndex);
+    }
+
+    /**
+     * Get the number of continuous samples that have the same value as fromIndex.
+     */
+    public int runLength(int fromIndex) {
+        return nextEdge(fromIndex) - fromIndex;
+    }
+
+    /**
+     * Count high samples from fromIndex (inclusive) to toIndex (exclusive).
+     */
+    public int countHigh(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        int count = 0;
+        for (int i = fromIndex; i < toIndex; i += BITS_PER_WORD) {
+            long bits = getBits(i);
+            int numOfBits = toIndex - i;
+            if (numOfBits < BITS_PER_WORD) {
+                bits &= ~(WORD_MASK << numOfBits);
+            }
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * Read samples at positions, sample at positions[i] goes to bit i of the result.
+     * Positions outside the signal read as low.
+     */
+    public int extractBits(int[] positions) {
+        if (positions.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Too many positions: " + positions.length);
+        }
+        int result = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            if (position >= 0 && position < mLength
+                    && (mWords[position >> ADDRESS_BITS_PER_WORD] & (1L << position)) != 0) {
+                result |= 1 << i;
+            }
+        }
+        return result;
+    }
+
+    // Get 64 samples starting from fromIndex, samples after length() are 0.
+    private long getBits(int fromIndex) {
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        int shift = fromIndex & (BITS_PER_WORD - 1);
+        if (wordIndex >= mWords.length) {
+            return 0;
+        }
+        long bits = mWords[wordIndex] >>> shift;
+        if (shift != 0 && wordIndex + 1 < mWords.length) {
+            bits |= mWords[wordIndex + 1] << (BITS_PER_WORD - shift);
+        }
+        return bits;
+    }
+
+    // Write the lowest numOfBits (1 to 64) bits to samples starting from fromIndex.
+    private void setBits(int fromIndex, long bits, int numOfBits) {
+        long mask = WORD_MASK >>> (BITS_PER_WORD - numOfBits);
+        bits &= mask;
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        int shift = fromIndex & (BITS_PER_WORD - 1);
+        mWords[wordIndex] = (mWords[wordIndex] & ~(mask << shift)) | (bits << shift);
+        if (shift + numOfBits > BITS_PER_WORD) {
+            int lowBits = BITS_PER_WORD - shift;
+            mWords[wordIndex + 1] =
+                    (mWords[wordIndex + 1] & ~(mask >>> lowBits)) | (bits >>> lowBits);
+        }
+    }
+
+    private void setWordBits(int wordIndex, long mask, boolean value) {
+        if (value) {
+            mWords[wordIndex] |= mask;
+        } else {
+            mWords[wordIndex] &= ~mask;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mLength || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", length: " + mLength);
+        }
+    }
+}
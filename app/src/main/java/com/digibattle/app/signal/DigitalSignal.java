@@ -0,0 +1,53 @@
+package com.digibattle.app.signal;
+
+/**
+ * Read only access to a digital signal, true means high voltage.
+ *
+ * All next*() functions return length() when there is no such sample.
+ */
+public interface DigitalSignal {
+
+    int length();
+
+    boolean get(int index);
+
+    int nextSetBit(int fromIndex);
+
+    int nextClearBit(int fromIndex);
+
+    /**
+     * Get the first index after fromIndex that has a different value than fromIndex.
+     */
+    int nextEdge(int fromIndex);
+
+    /**
+     * Get the number of continuous samples that have the same value as fromIndex.
+     */
+    int runLength(int fromIndex);
+
+    /**
+     * Get the last high sample at or before fromIndex, or -1 if there is none.
+     */
+    int previousSetBit(int fromIndex);
+
+    /**
+     * Count high samples from fromIndex (inclusive) to toIndex (exclusive).
+     */
+    int countHigh(int fromIndex, int toIndex);
+
+    /**
+     * Read samples at positions, sample at positions[i] goes to bit i of the result.
+     * Positions outside the signal read as low.
+     */
+    int extractBits(int[] positions);
+
+    /**
+     * Get samples from fromIndex (inclusive) to toIndex (exclusive) as a new signal.
+     */
+    DigitalSignal slice(int fromIndex, int toIndex);
+
+    /**
+     * Get all samples as a new BitSignal.
+     */
+    BitSignal toBitSignal();
+}
@@ -0,0 +1,123 @@
+package com.digibattle.app.signal;
+
+/**
+ * Read only window of another digital signal, made without copying it. Index 0 of the view is
+ * index offset of the backing signal, which must not be changed while the view is in use.
+ */
+public class DigitalSignalView implements DigitalSignal {
+
+    private final DigitalSignal mSignal;
+    private final int mOffset;
+    private final int mLength;
+
+    public DigitalSignalView(DigitalSignal signal, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > signal.length()) {
+            throw new IndexOutOfBoundsException(
+                    "offset: " + offset + ", length: " + length + ", size: " + signal.length());
+        }
+        // Views of views point to the original signal.
+        if (signal instanceof DigitalSignalView) {
+            DigitalSignalView view = (DigitalSignalView) signal;
+            signal = view.mSignal;
+            offset += view.mOffset;
+        }
+        mSignal = signal;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public boolean get(int index) {
+        checkIndex(index);
+        return mSignal.get(mOffset + index);
+    }
+
+    @Override
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex >= mLength) {
+            return mLength;
+        }
+        return Math.min(mSignal.nextSetBit(mOffset + fromIndex) - mOffset, mLength);
+    }
+
+    @Override
+    public int nextClearBit(int fromIndex) {
+        if (fromIndex >= mLength) {
+            return mLength;
+        }
+        return Math.min(mSignal.nextClearBit(mOffset + fromIndex) - mOffset, mLength);
+    }
+
+    @Override
+    public int nextEdge(int fromIndex) {
+        return get(fromIndex) ? nextClearBit(fromIndex) : nextSetBit(fromIndex);
+    }
+
+    @Override
+    public int runLength(int fromIndex) {
+        return nextEdge(fromIndex) - fromIndex;
+    }
+
+    @Override
+    public int previousSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        checkIndex(fromIndex);
+        int index = mSignal.previousSetBit(mOffset + fromIndex) - mOffset;
+        return index >= 0 ? index : -1;
+    }
+
+    @Override
+    public int countHigh(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        return mSignal.countHigh(mOffset + fromIndex, mOffset + toIndex);
+    }
+
+    @Override
+    public int extractBits(int[] positions) {
+        if (positions.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Too many positions: " + positions.length);
+        }
+        int result = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            if (position >= 0 && position < mLength && mSignal.get(mOffset + position)) {
+                result |= 1 << i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a view of the view, nothing is copied.
+     */
+    @Override
+    public DigitalSignalView slice(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        return new DigitalSignalView(mSignal, mOffset + fromIndex, toIndex - fromIndex);
+    }
+
+    @Override
+    public BitSignal toBitSignal() {
+        return mSignal.slice(mOffset, mOffset + mLength).toBitSignal();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mLength || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", length: " + mLength);
+        }
+    }
+}
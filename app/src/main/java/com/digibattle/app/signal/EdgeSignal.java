@@ -0,0 +1,233 @@
+package com.digibattle.app.signal;
+
+import java.util.Arrays;
+
+/**
+ * Digital signal stored as the indexes where the level changes. A recording is mostly long
+ * runs of the same level, so this takes a few bytes per edge instead of a bit per sample.
+ *
+ * Sample i is the first sample's level, flipped once for every edge at or before i. Level
+ * lookups are a binary search over the edges. Instances are immutable.
+ */
+public class EdgeSignal implements DigitalSignal {
+
+    private final int mLength;
+    private final boolean mInitValue;
+    // Sorted, all in (0, mLength).
+    private final int[] mEdges;
+
+    /**
+     * Create an all low signal.
+     */
+    public EdgeSignal(int length) {
+        this(length, false, new int[0]);
+    }
+
+    private EdgeSignal(int length, boolean initValue, int[] edges) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Bad length: " + length);
+        }
+        mLength = length;
+        mInitValue = initValue;
+        mEdges = edges;
+    }
+
+    /**
+     * @param initValue Level of sample 0.
+     * @param edges     Sorted indexes in (0, length) where the level changes, not copied.
+     */
+    public static EdgeSignal fromEdges(int length, boolean initValue, int[] edges) {
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] <= 0 || edges[i] >= length || (i > 0 && edges[i] <= edges[i - 1])) {
+                throw new IllegalArgumentException("Bad edge at " + i + ": " + edges[i]);
+            }
+        }
+        return new EdgeSignal(length, initValue, edges);
+    }
+
+    public static EdgeSignal fromDigitalSignal(DigitalSignal signal) {
+        if (signal instanceof EdgeSignal) {
+            return (EdgeSignal) signal;
+        }
+        int length = signal.length();
+        if (length == 0) {
+            return new EdgeSignal(0);
+        }
+        int numOfEdges = 0;
+        for (int i = signal.nextEdge(0); i < length; i = signal.nextEdge(i)) {
+            numOfEdges++;
+        }
+        int[] edges = new int[numOfEdges];
+        int index = 0;
+        for (int i = signal.nextEdge(0); i < length; i = signal.nextEdge(i)) {
+            edges[index++] = i;
+        }
+        return new EdgeSignal(length, signal.get(0), edges);
+    }
+
+    public int getNumOfEdges() {
+        return mEdges.length;
+    }
+
+    public int getEdge(int index) {
+        return mEdges[index];
+    }
+
+    /**
+     * Get the number of edges at or before index.
+     */
+    private int countEdges(int index) {
+        int position = Arrays.binarySearch(mEdges, index);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    // Level after numOfEdges edges.
+    private boolean levelAfter(int numOfEdges) {
+        return mInitValue ^ ((numOfEdges & 1) != 0);
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public boolean get(int index) {
+        checkIndex(index);
+        return levelAfter(countEdges(index));
+    }
+
+    @Override
+    public int nextSetBit(int fromIndex) {
+        return nextLevel(fromIndex, true);
+    }
+
+    @Override
+    public int nextClearBit(int fromIndex) {
+        return nextLevel(fromIndex, false);
+    }
+
+    private int nextLevel(int fromIndex, boolean level) {
+        if (fromIndex >= mLength) {
+            return mLength;
+        }
+        int numOfEdges = countEdges(fromIndex);
+        if (levelAfter(numOfEdges) == level) {
+            return fromIndex;
+        }
+        return numOfEdges < mEdges.length ? mEdges[numOfEdges] : mLength;
+    }
+
+    @Override
+    public int nextEdge(int fromIndex) {
+        checkIndex(fromIndex);
+        int numOfEdges = countEdges(fromIndex);
+        return numOfEdges < mEdges.length ? mEdges[numOfEdges] : mLength;
+    }
+
+    @Override
+    public int runLength(int fromIndex) {
+        return nextEdge(fromIndex) - fromIndex;
+    }
+
+    @Override
+    public int previousSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        checkIndex(fromIndex);
+        int numOfEdges = countEdges(fromIndex);
+        if (levelAfter(numOfEdges)) {
+            return fromIndex;
+        }
+        // The last edge went low, so the sample before it is high.
+        return numOfEdges > 0 ? mEdges[numOfEdges - 1] - 1 : -1;
+    }
+
+    @Override
+    public int countHigh(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        if (fromIndex == toIndex) {
+            return 0;
+        }
+        int numOfEdges = countEdges(fromIndex);
+        boolean level = levelAfter(numOfEdges);
+        int count = 0;
+        int runStart = fromIndex;
+        for (int i = numOfEdges; i < mEdges.length && mEdges[i] < toIndex; i++) {
+            if (level) {
+                count += mEdges[i] - runStart;
+            }
+            runStart = mEdges[i];
+            level = !level;
+        }
+        if (level) {
+            count += toIndex - runStart;
+        }
+        return count;
+    }
+
+    @Override
+    public int extractBits(int[] positions) {
+        if (positions.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Too many positions: " + positions.length);
+        }
+        int result = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            if (position >= 0 && position < mLength && get(position)) {
+                result |= 1 << i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies only the edges in range, not the samples.
+     */
+    @Override
+    public EdgeSignal slice(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+        if (fromIndex == toIndex) {
+            return new EdgeSignal(0);
+        }
+        int first = countEdges(fromIndex);
+        int last = countEdges(toIndex - 1);
+        int[] edges = new int[last - first];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = mEdges[first + i] - fromIndex;
+        }
+        return new EdgeSignal(toIndex - fromIndex, levelAfter(first), edges);
+    }
+
+    @Override
+    public BitSignal toBitSignal() {
+        BitSignal result = new BitSignal(mLength);
+        boolean level = mInitValue;
+        int runStart = 0;
+        for (int edge : mEdges) {
+            if (level) {
+                result.set(runStart, edge, true);
+            }
+            runStart = edge;
+            level = !level;
+        }
+        if (level) {
+            result.set(runStart, mLength, true);
+        }
+        return result;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mLength || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", length: " + mLength);
+        }
+    }
+}
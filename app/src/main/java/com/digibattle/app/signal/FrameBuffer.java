@@ -0,0 +1,78 @@
+package com.digibattle.app.signal;
+
+/**
+ * Analog frames of all partitions stored back to back in one array.
+ * Partition i is samples[offsets[i]] to samples[offsets[i + 1] - 1], so offsets has one more
+ * entry than the number of partitions.
+ *
+ * Each partition can have a non zero key that identifies its content, so the audio engine can
+ * cache its resampled frames. 0 means no cache.
+ */
+public class FrameBuffer {
+
+    private final short[] mSamples;
+    private final int[] mOffsets;
+    private final int[] mPartitionKeys;
+
+    public FrameBuffer(short[] samples, int[] offsets) {
+        this(samples, offsets, new int[Math.max(offsets.length - 1, 0)]);
+    }
+
+    public FrameBuffer(short[] samples, int[] offsets, int[] partitionKeys) {
+        if (offsets.length == 0 || offsets[0] != 0
+                || offsets[offsets.length - 1] != samples.length) {
+            throw new IllegalArgumentException("Offsets do not cover samples");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IllegalArgumentException("Bad offset at " + i + ": " + offsets[i]);
+            }
+        }
+        if (partitionKeys.length != offsets.length - 1) {
+            throw new IllegalArgumentException("Bad number of keys: " + partitionKeys.length);
+        }
+        mSamples = samples;
+        mOffsets = offsets;
+        mPartitionKeys = partitionKeys;
+    }
+
+    /**
+     * Build the frame buffer by copying all partitions.
+     */
+    public static FrameBuffer fromPartitions(short[][] partitions) {
+        int[] offsets = new int[partitions.length + 1];
+        for (int i = 0; i < partitions.length; i++) {
+            offsets[i + 1] = offsets[i] + partitions[i].length;
+        }
+        short[] samples = new short[offsets[partitions.length]];
+        for (int i = 0; i < partitions.length; i++) {
+            System.arraycopy(partitions[i], 0, samples, offsets[i], partitions[i].length);
+        }
+        return new FrameBuffer(samples, offsets);
+    }
+
+    public int getNumOfPartitions() {
+        return mOffsets.length - 1;
+    }
+
+    public int getPartitionOffset(int partition) {
+        return mOffsets[partition];
+    }
+
+    public int getPartitionSize(int partition) {
+        return mOffsets[partition + 1] - mOffsets[partition];
+    }
+
+    // Backing arrays, do not modify.
+    public short[] getSamples() {
+        return mSamples;
+    }
+
+    public int[] getOffsets() {
+        return mOffsets;
+    }
+
+    public int[] getPartitionKeys() {
+        return mPartitionKeys;
+    }
+}
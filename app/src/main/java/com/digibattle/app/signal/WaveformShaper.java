@@ -0,0 +1,143 @@
+package com.digibattle.app.signal;
+
+import java.util.Arrays;
+
+/**
+ * Turns digital signals into analog samples run by run, with the output level of a run
+ * starting at initRatio * level and moving delta per sample towards the full level.
+ *
+ * The curve only depends on the level and the position in the run, so both curves are worked
+ * out once up to the point they settle. Rendering a run is then a table copy plus a fill.
+ * Instances are immutable.
+ */
+public class WaveformShaper {
+
+    // Longest curve kept in a table, longer unsettled curves are continued sample by sample.
+    private static final int MAX_CURVE_SIZE = 1 << 16;
+
+    private final short mHighLevel;
+    private final short mLowLevel;
+    private final float mInitRatio;
+    private final int mDelta;
+    private final boolean mRamp;
+    // Run samples until the level settles, the last entry is the settled level if settled.
+    private final short[] mHighCurve;
+    private final short[] mLowCurve;
+    private final boolean mHighSettled;
+    private final boolean mLowSettled;
+
+    /**
+     * @param highLevel Full analog level of a high run.
+     * @param lowLevel  Full analog level of a low run.
+     * @param initRatio Ratio of the full level at the start of a run.
+     * @param delta     How far the level moves towards full each sample.
+     * @param ramp      False to output full levels without a curve.
+     */
+    public WaveformShaper(short highLevel, short lowLevel, float initRatio, int delta,
+            boolean ramp) {
+        mHighLevel = highLevel;
+        mLowLevel = lowLevel;
+        mInitRatio = initRatio;
+        mDelta = delta;
+        mRamp = ramp;
+        if (ramp) {
+            mHighCurve = buildCurve(true);
+            mLowCurve = buildCurve(false);
+        } else {
+            mHighCurve = new short[]{highLevel};
+            mLowCurve = new short[]{lowLevel};
+        }
+        mHighSettled = !ramp || isSettled(mHighCurve, true);
+        mLowSettled = !ramp || isSettled(mLowCurve, false);
+    }
+
+    private short getFirstValue(boolean high) {
+        return (short) ((high ? mHighLevel : mLowLevel) * mInitRatio);
+    }
+
+    /**
+     * Next sample of a run. Levels move towards Short.MIN_VALUE on high runs and towards
+     * Short.MAX_VALUE on low runs, which is how the output is wired with a transistor.
+     */
+    private short getNextValue(short value, boolean high) {
+        if (high) {
+            if (value > Short.MIN_VALUE + mDelta) {
+                return (short) (value - mDelta);
+            }
+        } else {
+            if (value < Short.MAX_VALUE - mDelta) {
+                return (short) (value + mDelta);
+            }
+        }
+        return value;
+    }
+
+    private short[] buildCurve(boolean high) {
+        short[] curve = new short[MAX_CURVE_SIZE];
+        short value = getFirstValue(high);
+        int size = 0;
+        curve[size++] = value;
+        while (size < MAX_CURVE_SIZE) {
+            short next = getNextValue(value, high);
+            if (next == value) {
+                break;
+            }
+            value = next;
+            curve[size++] = value;
+        }
+        return Arrays.copyOf(curve, size);
+    }
+
+    private boolean isSettled(short[] curve, boolean high) {
+        short last = curve[curve.length - 1];
+        return getNextValue(last, high) == last;
+    }
+
+    /**
+     * Get a key of the shaping parameters, shapers with the same key give the same output.
+     */
+    public long getKey() {
+        return ((long) Float.floatToIntBits(mInitRatio) << 32) | (mDelta & 0xffffffffL);
+    }
+
+    public short[] render(BitSignal digital) {
+        short[] result = new short[digital.length()];
+        render(digital, result, 0);
+        return result;
+    }
+
+    /**
+     * Write the analog version of digital to dst from offset.
+     */
+    public void render(BitSignal digital, short[] dst, int offset) {
+        int length = digital.length();
+        int runStart = 0;
+        while (runStart < length) {
+            boolean high = digital.get(runStart);
+            int runEnd = digital.nextEdge(runStart);
+            renderRun(high, runEnd - runStart, dst, offset + runStart);
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Write one run of length samples to dst from offset.
+     */
+    public void renderRun(boolean high, int length, short[] dst, int offset) {
+        short[] curve = high ? mHighCurve : mLowCurve;
+        int fromCurve = Math.min(length, curve.length);
+        System.arraycopy(curve, 0, dst, offset, fromCurve);
+        if (fromCurve == length) {
+            return;
+        }
+        if (high ? mHighSettled : mLowSettled) {
+            Arrays.fill(dst, offset + fromCurve, offset + length, curve[curve.length - 1]);
+            return;
+        }
+        short value = curve[curve.length - 1];
+        for (int i = fromCurve; i < length; i++) {
+            value = getNextValue(value, high);
+            dst[offset + i] = value;
+        }
+    }
+}
@@ -8,6 +8,10 @@ import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.SurfaceView;
 
+import com.digibattle.app.signal.AnalogSignalView;
+import com.digibattle.app.signal.DigitalSignal;
+import com.digibattle.app.signal.EdgeSignal;
+
 import java.util.LinkedList;
 
 /**
@@ -24,9 +28,9 @@ public class WaveformView extends SurfaceView {
     private static final float MAX_AMPLITUDE_TO_DRAW = 32767f * 1.1f;
 
     // The queue that will hold historical audio data.
-    private final LinkedList<short[]> mAudioData;
+    private final LinkedList<AnalogSignalView> mAudioData;
 
-    private final LinkedList<boolean[]> mDigitalData;
+    private final LinkedList<DigitalSignal> mDigitalData;
 
     private int[] mMarkerPosition;
 
@@ -53,22 +57,21 @@ public class WaveformView extends SurfaceView {
         mPaint.setAntiAlias(true);
     }
 
-    public synchronized void updateDigitalData(boolean[] buffer) {
+    /**
+     * Same as updateAudioData, for digital signals. The signal is kept without copying.
+     */
+    public synchronized void updateDigitalData(DigitalSignal buffer) {
         if (buffer == null) {
-            buffer = new boolean[1];
+            buffer = new EdgeSignal(1);
         }
-        boolean[] newBuffer;
 
         // We want to keep a small amount of history in the view to provide a nice fading effect.
         // We use a linked list that we treat as a queue for this.
         if (mDigitalData.size() == HISTORY_SIZE) {
-            newBuffer = mDigitalData.removeFirst();
-            newBuffer = buffer.clone();
-        } else {
-            newBuffer = buffer.clone();
+            mDigitalData.removeFirst();
         }
 
-        mDigitalData.addLast(newBuffer);
+        mDigitalData.addLast(buffer);
 
         // Update the display.
         Canvas canvas = getHolder().lockCanvas();
@@ -83,24 +86,20 @@ public class WaveformView extends SurfaceView {
      * added to the front of the rendering queue, pushing the previous frames back, causing them to
      * be faded out visually.
      *
-     * @param buffer the most recent buffer of audio samples
+     * @param buffer the most recent buffer of audio samples, it is kept without copying
      */
-    public synchronized void updateAudioData(short[] buffer) {
+    public synchronized void updateAudioData(AnalogSignalView buffer) {
         if (buffer == null) {
-            buffer = new short[1];
+            buffer = AnalogSignalView.empty();
         }
-        short[] newBuffer;
 
         // We want to keep a small amount of history in the view to provide a nice fading effect.
         // We use a linked list that we treat as a queue for this.
         if (mAudioData.size() == HISTORY_SIZE) {
-            newBuffer = mAudioData.removeFirst();
-            newBuffer = buffer.clone();
-        } else {
-            newBuffer = buffer.clone();
+            mAudioData.removeFirst();
         }
 
-        mAudioData.addLast(newBuffer);
+        mAudioData.addLast(buffer);
 
         // Update the display.
         Canvas canvas = getHolder().lockCanvas();
@@ -128,8 +127,8 @@ public class WaveformView extends SurfaceView {
         int colorDelta = 255;
         int brightness = colorDelta;
 
-        for (short[] buffer : mAudioData) {
-            if (buffer == null || buffer.length == 0) {
+        for (AnalogSignalView buffer : mAudioData) {
+            if (buffer == null || buffer.length() == 0) {
                 continue;
             }
             mPaint.setColor(Color.WHITE);
@@ -140,8 +139,8 @@ public class WaveformView extends SurfaceView {
             // For efficiency, we don't draw all of the samples in the buffer, but only the ones
             // that align with pixel boundaries.
             for (int x = 0; x < width; x++) {
-                int index = (int) ((x / width) * buffer.length);
-                short sample = buffer[index];
+                int index = (int) ((x / width) * buffer.length());
+                short sample = buffer.get(index);
                 float y = (-sample / MAX_AMPLITUDE_TO_DRAW) * centerY + centerY;
 
                 if (lastX != -1) {
@@ -155,8 +154,8 @@ public class WaveformView extends SurfaceView {
         }
 
         if (mDigitalData != null) {
-            for (boolean[] buffer : mDigitalData) {
-                if (buffer == null || buffer.length == 0) {
+            for (DigitalSignal buffer : mDigitalData) {
+                if (buffer == null || buffer.length() == 0) {
                     continue;
                 }
                 mPaint.setColor(Color.GREEN);
@@ -167,8 +166,8 @@ public class WaveformView extends SurfaceView {
                 // For efficiency, we don't draw all of the samples in the buffer, but only the ones
                 // that align with pixel boundaries.
                 for (int x = 0; x < width; x++) {
-                    int index = (int) ((x / width) * buffer.length);
-                    short sample = buffer[index] ? Short.MAX_VALUE : Short.MIN_VALUE;
+                    int index = (int) ((x / width) * buffer.length());
+                    short sample = buffer.get(index) ? Short.MAX_VALUE : Short.MIN_VALUE;
                     float y = (-sample / MAX_AMPLITUDE_TO_DRAW) * centerY + centerY;
 
                     if (lastX != -1) {
@@ -182,17 +181,18 @@ public class WaveformView extends SurfaceView {
             }
         }
 
-        if (mMarkerPosition != null) {
+        if (mMarkerPosition != null && !mAudioData.isEmpty()
+                && mAudioData.getFirst().length() > 0) {
             mPaint.setColor(Color.RED);
+            int length = mAudioData.getFirst().length();
             for (int p : mMarkerPosition) {
-                canvas.drawLine(width * p / mAudioData.get(0).length, 0,
-                        width * p / mAudioData.get(0).length, height, mPaint);
+                canvas.drawLine(width * p / length, 0, width * p / length, height, mPaint);
             }
         }
     }
 
 
-    public void setSamples(short[] samples, boolean[] digitalSamples) {
+    public void setSamples(AnalogSignalView samples, DigitalSignal digitalSamples) {
         updateAudioData(samples);
         updateDigitalData(digitalSamples);
     }
@@ -0,0 +1,51 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.BitSignal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockRecoveryDecoderTest {
+
+    private static BitSignal stretch(BitSignal signal, double factor) {
+        BitSignal result = new BitSignal((int) (signal.length() * factor));
+        for (int i = 0; i < result.length(); i++) {
+            result.set(i, signal.get((int) (i / factor)));
+        }
+        return result;
+    }
+
+    private static BitSignal encodePartition(DigimonMessageEncoder encoder, String hex) {
+        BitSignal signal = encoder.encodeWithHandshakeAndStartSignal(hex);
+        return signal.slice(encoder.getHandshakeSize(), signal.length());
+    }
+
+    @Test
+    public void testDecodeNominalClock() {
+        DigimonMessageEncoder[] encoders = new DigimonMessageEncoder[]{
+                new DigimonOriginalEncoder(), new DigimonPendulumEncoder(),
+                new DigimonMiniEncoder()};
+        for (DigimonMessageEncoder encoder : encoders) {
+            int inputRate = 48000;
+            BitSignal signal = stretch(encodePartition(encoder, "5e0f"),
+                    ((double) inputRate) / encoder.rate());
+            ClockRecoveryDecoder.Result result =
+                    new ClockRecoveryDecoder(encoder, inputRate).decode(signal);
+            assertEquals(0x5e0f, result.getWord());
+            assertEquals(0f, result.getDriftPpm(), 2000f);
+        }
+    }
+
+    @Test
+    public void testDecodeDriftedClock() {
+        DigimonPendulumEncoder encoder = new DigimonPendulumEncoder();
+        BitSignal signal = stretch(encodePartition(encoder, "a53c"), 1.05);
+        ClockRecoveryDecoder.Result result =
+                new ClockRecoveryDecoder(encoder, encoder.rate()).decode(signal);
+        assertEquals(0xa53c, result.getWord());
+        assertEquals(50000f, result.getDriftPpm(), 2000f);
+        // Fixed clock decoder loses the last messages.
+        assertNotEquals(0xa53c, encoder.decodeWord(encoder.rate(), signal).getWord());
+    }
+}
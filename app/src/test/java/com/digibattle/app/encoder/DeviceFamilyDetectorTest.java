@@ -0,0 +1,74 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.BitSignal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceFamilyDetectorTest {
+
+    private static final int INPUT_RATE = 48000;
+    private static final int IDLE_SIZE = 500;
+
+    private static final DigimonMessageEncoder[] ENCODERS = new DigimonMessageEncoder[]{
+            new DigimonOriginalEncoder(), new DigimonPendulumEncoder(), new DigimonMiniEncoder()};
+
+    // Idle high line, then one partition resampled to INPUT_RATE.
+    private static BitSignal record(DigimonMessageEncoder encoder, String hex) {
+        return record(encoder, hex, 0);
+    }
+
+    // Same as record, from a toy which clock is drift slower (> 0) or faster (< 0).
+    private static BitSignal record(DigimonMessageEncoder encoder, String hex, double drift) {
+        BitSignal partition = encoder.encodeWithHandshakeAndStartSignal(hex);
+        double factor = ((double) INPUT_RATE) / encoder.rate() * (1 + drift);
+        BitSignal result = new BitSignal(IDLE_SIZE + (int) (partition.length() * factor));
+        result.set(0, IDLE_SIZE, true);
+        for (int i = IDLE_SIZE; i < result.length(); i++) {
+            result.set(i, partition.get((int) ((i - IDLE_SIZE) / factor)));
+        }
+        return result;
+    }
+
+    @Test
+    public void testDetect() {
+        DeviceFamilyDetector detector = new DeviceFamilyDetector();
+        for (DigimonMessageEncoder encoder : ENCODERS) {
+            for (String hex : new String[]{"0000", "ffff", "8c2e"}) {
+                BitSignal signal = record(encoder, hex);
+                // The engine flags handshake a bit after it starts.
+                DigimonMessageEncoder detected = detector.detect(signal, IDLE_SIZE + 100,
+                        signal.length());
+                assertSame(encoder.getClass(), detected.getClass());
+            }
+        }
+    }
+
+    @Test
+    public void testDetectWithClockDrift() {
+        DeviceFamilyDetector detector = new DeviceFamilyDetector();
+        for (DigimonMessageEncoder encoder : ENCODERS) {
+            for (double drift : new double[]{-0.05, -0.03, 0.03, 0.05}) {
+                for (String hex : new String[]{"0000", "ffff", "8c2e", "a35c"}) {
+                    BitSignal signal = record(encoder, hex, drift);
+                    String name = encoder.getClass().getSimpleName() + " " + hex + " at "
+                            + drift;
+                    assertSame(name, encoder.getClass(), detector.detect(signal,
+                            IDLE_SIZE + 100, signal.length()).getClass());
+                    // Whichever family I selected, the partner's family is found.
+                    for (DigimonMessageEncoder expected : ENCODERS) {
+                        assertSame(name, encoder.getClass(), detector.detect(signal,
+                                IDLE_SIZE + 100, signal.length(), expected).getClass());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDetectBrokenPartition() {
+        BitSignal signal = new BitSignal(1000);
+        assertNull(new DeviceFamilyDetector().detect(signal, 100, 1000));
+    }
+}
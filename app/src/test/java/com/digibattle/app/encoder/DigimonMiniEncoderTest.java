@@ -1,5 +1,7 @@
 package com.digibattle.app.encoder;
 
+import com.digibattle.app.signal.BitSignal;
+
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -7,51 +9,80 @@ import java.util.Arrays;
 import static org.junit.Assert.*;
 
 public class DigimonMiniEncoderTest {
+    // One message per bit of the word, "A3" is sent as 0x00a3.
+    private static final int WORD_MESSAGES = 16;
+
     @Test
     public void testEncodehexString() {
         DigimonMiniEncoder encoder = new DigimonMiniEncoder();
-        boolean[] expected = new boolean[DigimonMiniEncoder.MESSAGE_1_SIGNALS.length * 8];
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, 0, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*2, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*3, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*4, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*5, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*6, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*7, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        assertArrayEquals(expected, encoder.encode("A3"));
-
-        assertArrayEquals(expected, encoder.encode("a3"));
+        boolean[] expected = new boolean[DigimonMiniEncoder.ONE_MESSAGE_SIZE * WORD_MESSAGES];
+        encodeWord(0x00a3, expected, 0);
+        assertArrayEquals(expected, encoder.encode("A3").toBooleanArray());
+
+        assertArrayEquals(expected, encoder.encode("a3").toBooleanArray());
+    }
+
+    @Test
+    public void testEncodeNibble() {
+        DigimonMiniEncoder encoder = new DigimonMiniEncoder();
+        int size = DigimonMiniEncoder.ONE_MESSAGE_SIZE;
+        boolean[] expected = new boolean[size * 4];
+        // 0xa = 1010, LSB first.
+        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, 0, size);
+        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, size, size);
+        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, size * 2, size);
+        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, size * 3, size);
+        assertArrayEquals(expected, encoder.encodeNibble(0xa).toBooleanArray());
     }
 
     @Test
     public void testHandshake() {
         DigimonMiniEncoder encoder = new DigimonMiniEncoder();
-        boolean[] expectedResult = new boolean[234];
+        boolean[] expectedResult = new boolean[169];
         Arrays.fill(expectedResult, false);
-        assertArrayEquals(expectedResult, encoder.handshake());
+        assertArrayEquals(expectedResult, encoder.handshake().toBooleanArray());
     }
 
     @Test
     public void testRate() {
         DigimonMiniEncoder encoder = new DigimonMiniEncoder();
-        assertEquals(3750, encoder.rate());
+        assertEquals(3465, encoder.rate());
     }
 
     @Test
     public void testEncodeWithHandshake() {
         DigimonMiniEncoder encoder = new DigimonMiniEncoder();
-        boolean[] expected = new boolean[DigimonMiniEncoder.MESSAGE_1_SIGNALS.length * 8 + 234];
+        int start = DigimonMiniEncoder.START_MESSAGE_SIGNALS.length;
+        boolean[] expected =
+                new boolean[169 + start + DigimonMiniEncoder.ONE_MESSAGE_SIZE * WORD_MESSAGES];
         Arrays.fill(expected, false);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, 234, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*2, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*3, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*4, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_0_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*5, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*6, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        System.arraycopy(DigimonMiniEncoder.MESSAGE_1_SIGNALS, 0, expected, 234+DigimonMiniEncoder.MESSAGE_1_SIGNALS.length*7, DigimonMiniEncoder.MESSAGE_1_SIGNALS.length);
-        assertArrayEquals(expected, encoder.encodeWithHandshakeAndStartSignal("A3"));
+        System.arraycopy(DigimonMiniEncoder.START_MESSAGE_SIGNALS, 0, expected, 169, start);
+        encodeWord(0x00a3, expected, 169 + start);
+        assertArrayEquals(expected,
+                encoder.encodeWithHandshakeAndStartSignal("A3").toBooleanArray());
+    }
+
+    @Test
+    public void testDecodeWordIgnoresGlitch() {
+        DigimonMiniEncoder encoder = new DigimonMiniEncoder();
+        BitSignal signal = encoder.encodeWithHandshakeAndStartSignal("a3c5");
+        signal = signal.slice(encoder.getHandshakeSize(), signal.length());
+        // Flip the sample the single point decoder reads for the first message.
+        int marker = encoder.getMarkerPosition(encoder.rate())[0];
+        signal.set(marker, !signal.get(marker));
+        DecodedWord word = encoder.decodeWord(encoder.rate(), signal);
+        assertEquals(0xa3c5, word.getWord());
+        assertTrue(word.getConfidence(0) < 1f);
+        assertEquals(1f, word.getConfidence(1), 0f);
+    }
 
+    // Messages of the 16 bits of word, LSB first.
+    private static void encodeWord(int word, boolean[] dst, int offset) {
+        int size = DigimonMiniEncoder.ONE_MESSAGE_SIZE;
+        for (int bit = 0; bit < WORD_MESSAGES; bit++) {
+            boolean[] signals = ((word >> bit) & 1) == 1 ? DigimonMiniEncoder.MESSAGE_1_SIGNALS
+                    : DigimonMiniEncoder.MESSAGE_0_SIGNALS;
+            System.arraycopy(signals, 0, dst, offset + bit * size, size);
+        }
     }
 }
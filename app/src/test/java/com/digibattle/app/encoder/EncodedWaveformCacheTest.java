@@ -0,0 +1,36 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.FrameBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncodedWaveformCacheTest {
+    @Test
+    public void testEncodeFramesSameAsEncoder() {
+        DigimonMiniEncoder encoder = new DigimonMiniEncoder();
+        String[] words = new String[]{"0A3F", "a3", "FFFF"};
+        FrameBuffer expected = encoder.encodeFrames(words);
+        FrameBuffer actual = new EncodedWaveformCache().encodeFrames(encoder, words);
+        assertArrayEquals(expected.getOffsets(), actual.getOffsets());
+        assertArrayEquals(expected.getSamples(), actual.getSamples());
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        EncodedWaveformCache cache = new EncodedWaveformCache();
+        DigimonMiniEncoder encoder = new DigimonMiniEncoder();
+        int[] keys = cache.encodeFrames(encoder, new String[]{"00A3", "1234"}).getPartitionKeys();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        // Same word in different case and padding.
+        int[] cachedKeys = cache.encodeFrames(encoder, new String[]{"a3"}).getPartitionKeys();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(keys[0], cachedKeys[0]);
+        // Other encoders do not share entries.
+        cache.encodeFrames(new DigimonPendulumEncoder(), new String[]{"00A3"});
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.SignalUtils;
+import com.digibattle.app.signal.WaveformShaper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * The native engine synthesizes battle partitions from words instead of sending encodeInto
+ * frames. SymbolSynthesizer is ported here as is, so its run boundaries and chunked rendering
+ * can be checked against the encoders. Keep the port in sync with SymbolSynthesizer.cpp.
+ */
+public class SymbolSynthesisTest {
+
+    private static final int[] WORDS = new int[]{0x0000, 0xffff, 0xa35c, 0x1234, 0x8001};
+    // Whole partition in one go, a typical burst, and sizes that split runs anywhere.
+    private static final int[] CHUNK_SIZES = new int[]{Integer.MAX_VALUE, 192, 97, 7, 1};
+
+    @Test
+    public void testSynthesisMatchesEncodedFrames() {
+        DigimonMessageEncoder[] encoders = new DigimonMessageEncoder[]{
+                new DigimonOriginalEncoder(), new DigimonPendulumEncoder(),
+                new DigimonMiniEncoder()};
+        WaveformShaper shaper = SignalUtils.getWaveformShaper();
+        for (DigimonMessageEncoder encoder : encoders) {
+            int[] timing = encoder.getSymbolTimingUs();
+            for (int word : WORDS) {
+                String hex = DigimonMessageEncoder.toHexString(word);
+                short[] expected = new short[encoder.getEncodedSize(hex)];
+                encoder.encodeInto(hex, expected, 0);
+                String name = encoder.getClass().getSimpleName() + " " + hex;
+                // At the encoder rate every run boundary lands on the same sample.
+                assertEquals(name, expected.length,
+                        getRunEnds(timing, word, encoder.rate())[RUNS - 1]);
+                for (int chunkSize : CHUNK_SIZES) {
+                    // A few samples past the end, they must be silence.
+                    short[] actual = new short[expected.length + 5];
+                    for (int index = 0; index < actual.length; index += chunkSize) {
+                        int numFrames = Math.min(chunkSize, actual.length - index);
+                        render(timing, word, encoder.rate(), shaper, index, actual, index,
+                                numFrames);
+                    }
+                    assertArrayEquals(name + " in chunks of " + chunkSize, expected,
+                            Arrays.copyOf(actual, expected.length));
+                    for (int i = expected.length; i < actual.length; i++) {
+                        assertEquals(0, actual[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final int BITS = 16;
+    private static final int RUNS = 3 + 2 * BITS;
+
+    // SymbolSynthesizer::getRunEnds.
+    private static int[] getRunEnds(int[] timingUs, int word, int rate) {
+        int[] runEnds = new int[RUNS];
+        long timeUs = 0;
+        int run = 0;
+        int[] lengthsUs = new int[RUNS];
+        lengthsUs[run++] = timingUs[0];
+        lengthsUs[run++] = timingUs[1];
+        lengthsUs[run++] = timingUs[2];
+        for (int bit = 0; bit < BITS; bit++) {
+            boolean one = ((word >> bit) & 1) != 0;
+            lengthsUs[run++] = one ? timingUs[5] : timingUs[3];
+            lengthsUs[run++] = one ? timingUs[6] : timingUs[4];
+        }
+        for (run = 0; run < RUNS; run++) {
+            timeUs += lengthsUs[run];
+            runEnds[run] = (int) ((timeUs * rate + 500000) / 1000000);
+        }
+        return runEnds;
+    }
+
+    // SymbolSynthesizer::render, the native shaper renders a run from any position, here the
+    // whole run is rendered and the part from that position copied.
+    private static void render(int[] timingUs, int word, int rate, WaveformShaper shaper,
+            int frameIndex, short[] dst, int offset, int numFrames) {
+        int[] runEnds = getRunEnds(timingUs, word, rate);
+        // upper_bound: first run that has not ended at frameIndex.
+        int run = 0;
+        while (run < RUNS && runEnds[run] <= frameIndex) {
+            run++;
+        }
+        int written = 0;
+        while (written < numFrames && run < RUNS) {
+            int runStart = run == 0 ? 0 : runEnds[run - 1];
+            int from = frameIndex + written - runStart;
+            int length = Math.min(numFrames - written, runEnds[run] - runStart - from);
+            short[] runSamples = new short[runEnds[run] - runStart];
+            shaper.renderRun(run % 2 == 1, runSamples.length, runSamples, 0);
+            System.arraycopy(runSamples, from, dst, offset + written, length);
+            written += length;
+            run++;
+        }
+        Arrays.fill(dst, offset + written, offset + numFrames, (short) 0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.digibattle.app.encoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SymbolTimingTest {
+    @Test
+    public void testOriginalTiming() {
+        // 4800 Hz: handshake 287 samples, start 10 high 4 low, 0 is 5 high 15 low and
+        // 1 is 13 high 7 low.
+        int[] timing = new DigimonOriginalEncoder().getSymbolTimingUs();
+        assertArrayEquals(new int[]{59792, 2083, 833, 1042, 3125, 2708, 1458}, timing);
+    }
+
+    @Test
+    public void testPartitionLengthMatchesFrames() {
+        DigimonMessageEncoder[] encoders = new DigimonMessageEncoder[]{
+                new DigimonOriginalEncoder(), new DigimonPendulumEncoder(),
+                new DigimonMiniEncoder()};
+        for (DigimonMessageEncoder encoder : encoders) {
+            int[] timing = encoder.getSymbolTimingUs();
+            assertNotNull(timing);
+            assertEquals(7, timing.length);
+            for (int word : new int[]{0x0000, 0xffff, 0xa35c}) {
+                long totalUs = timing[0] + timing[1] + timing[2];
+                for (int bit = 0; bit < DigimonMessageEncoder.BITS_PER_WORD; bit++) {
+                    boolean one = ((word >> bit) & 1) != 0;
+                    totalUs += one ? timing[5] + timing[6] : timing[3] + timing[4];
+                }
+                double expectedUs = encoder.getEncodedSize(DigimonMessageEncoder.toHexString(word))
+                        * 1000000.0 / encoder.rate();
+                // Each of the 35 runs is rounded to a microsecond.
+                assertEquals(expectedUs, totalUs, 35 * 0.5);
+            }
+        }
+    }
+}
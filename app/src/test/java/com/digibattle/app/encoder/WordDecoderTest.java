@@ -0,0 +1,27 @@
+package com.digibattle.app.encoder;
+
+import com.digibattle.app.signal.BitSignal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WordDecoderTest {
+    @Test
+    public void testDecode() {
+        DigimonOriginalEncoder encoder = new DigimonOriginalEncoder();
+        BitSignal signal = encoder.encodeWithHandshakeAndStartSignal("c0de");
+        signal = signal.slice(encoder.getHandshakeSize(), signal.length());
+        WordDecoder decoder = encoder.getWordDecoder(encoder.rate());
+        assertEquals(0xc0de, decoder.decode(signal));
+        assertEquals(0xc0de, decoder.decodeMarkers(signal));
+        assertSame(decoder, encoder.getWordDecoder(encoder.rate()));
+    }
+
+    @Test
+    public void testToHexString() {
+        assertEquals("0000", DigimonMessageEncoder.toHexString(0));
+        assertEquals("0f3a", DigimonMessageEncoder.toHexString(0x0f3a));
+        assertEquals("ffff", DigimonMessageEncoder.toHexString(0xffff));
+    }
+}
@@ -0,0 +1,85 @@
+package com.digibattle.app.signal;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AnalogToDigitalConverterTest {
+
+    private static final int THRESHOLD = 10000;
+
+    private static short[] buildAnalog() {
+        Random random = new Random(1);
+        short[] analog = new short[1000];
+        int level = -20000;
+        for (int i = 0; i < analog.length; i++) {
+            if (random.nextInt(30) == 0) {
+                level = -level;
+            }
+            analog[i] = (short) (level + random.nextInt(2000) - 1000);
+        }
+        return analog;
+    }
+
+    // One sample at a time, as the engine does.
+    private static boolean[] convert(short[] analog, boolean initValue) {
+        boolean[] result = new boolean[analog.length];
+        result[0] = initValue;
+        for (int i = 1; i < analog.length; i++) {
+            int diff = analog[i] - analog[i - 1];
+            if (diff > THRESHOLD) {
+                result[i] = true;
+            } else if (diff < -THRESHOLD) {
+                result[i] = false;
+            } else {
+                result[i] = result[i - 1];
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testBlocks() {
+        short[] analog = buildAnalog();
+        boolean[] expected = convert(analog, true);
+        AnalogToDigitalConverter converter = new AnalogToDigitalConverter(THRESHOLD);
+        for (int blockSize : new int[]{1, 7, 64, 100, 1000}) {
+            converter.reset(true);
+            for (int i = 0; i < analog.length; i += blockSize) {
+                converter.process(analog, i, Math.min(blockSize, analog.length - i));
+            }
+            assertEquals(analog.length, converter.getNumOfSamples());
+            assertArrayEquals(expected, converter.getOutput().toBooleanArray());
+        }
+    }
+
+    @Test
+    public void testDirectBufferView() {
+        short[] analog = buildAnalog();
+        ShortBuffer buffer = ByteBuffer.allocateDirect(analog.length * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        buffer.put(analog);
+        AnalogSignalView view = AnalogSignalView.wrap(buffer);
+        assertArrayEquals(analog, view.toArray());
+
+        AnalogToDigitalConverter converter = new AnalogToDigitalConverter(THRESHOLD);
+        converter.reset(true);
+        converter.process(view.slice(0, 300));
+        converter.process(view.slice(300, analog.length));
+        assertArrayEquals(convert(analog, true), converter.getOutput().toBooleanArray());
+    }
+
+    @Test
+    public void testGuessInitValue() {
+        short[] analog = buildAnalog();
+        AnalogToDigitalConverter converter = new AnalogToDigitalConverter(THRESHOLD);
+        converter.resetWithGuess(0);
+        converter.process(analog, 0, analog.length);
+        assertArrayEquals(convert(analog, analog[0] > 0), converter.getOutput().toBooleanArray());
+    }
+}
@@ -0,0 +1,90 @@
+package com.digibattle.app.signal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitSignalTest {
+    // Crosses word boundaries at 64 and 128.
+    private static boolean[] buildSignal() {
+        boolean[] signal = new boolean[150];
+        for (int i = 60; i < 70; i++) {
+            signal[i] = true;
+        }
+        for (int i = 100; i < 140; i++) {
+            signal[i] = true;
+        }
+        signal[149] = true;
+        return signal;
+    }
+
+    @Test
+    public void testBooleanArray() {
+        boolean[] expected = buildSignal();
+        assertArrayEquals(expected, BitSignal.fromBooleanArray(expected).toBooleanArray());
+    }
+
+    @Test
+    public void testEdges() {
+        BitSignal signal = BitSignal.fromBooleanArray(buildSignal());
+        assertEquals(60, signal.nextEdge(0));
+        assertEquals(70, signal.nextEdge(60));
+        assertEquals(100, signal.nextSetBit(70));
+        assertEquals(140, signal.nextClearBit(100));
+        assertEquals(9, signal.runLength(140));
+        assertEquals(150, signal.nextEdge(149));
+        assertEquals(150, signal.nextClearBit(149));
+    }
+
+    @Test
+    public void testCountHigh() {
+        BitSignal signal = BitSignal.fromBooleanArray(buildSignal());
+        assertEquals(51, signal.countHigh(0, 150));
+        assertEquals(5, signal.countHigh(65, 100));
+        assertEquals(0, signal.countHigh(70, 100));
+    }
+
+    @Test
+    public void testSliceAndCopy() {
+        boolean[] expected = buildSignal();
+        BitSignal signal = BitSignal.fromBooleanArray(expected);
+        BitSignal slice = signal.slice(59, 141);
+        assertEquals(82, slice.length());
+        for (int i = 0; i < slice.length(); i++) {
+            assertEquals(expected[59 + i], slice.get(i));
+        }
+        BitSignal copy = new BitSignal(200);
+        copy.copyFrom(signal, 0, 3, 150);
+        for (int i = 0; i < 150; i++) {
+            assertEquals(expected[i], copy.get(i + 3));
+        }
+        assertEquals(51, copy.countHigh(0, 200));
+    }
+
+    @Test
+    public void testSetRange() {
+        BitSignal signal = new BitSignal(150);
+        signal.set(10, 140, true);
+        signal.set(64, 128, false);
+        assertEquals(10, signal.nextSetBit(0));
+        assertEquals(64, signal.nextClearBit(10));
+        assertEquals(128, signal.nextSetBit(64));
+        assertEquals(140, signal.nextClearBit(128));
+    }
+
+    @Test
+    public void testExtractBits() {
+        BitSignal signal = BitSignal.fromBooleanArray(buildSignal());
+        assertEquals(0x5, signal.extractBits(new int[]{65, 70, 120, 200}));
+    }
+
+    @Test
+    public void testPreviousSetBit() {
+        BitSignal signal = new BitSignal(150);
+        signal.set(10, 64, true);
+        assertEquals(63, signal.previousSetBit(149));
+        assertEquals(63, signal.previousSetBit(63));
+        assertEquals(10, signal.previousSetBit(10));
+        assertEquals(-1, signal.previousSetBit(9));
+    }
+}
@@ -0,0 +1,53 @@
+package com.digibattle.app.signal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DigitalSignalViewTest {
+
+    private static BitSignal buildSignal() {
+        Random random = new Random(2);
+        BitSignal signal = new BitSignal(400);
+        for (int i = 0; i < signal.length(); i += 1 + random.nextInt(30)) {
+            signal.set(i, Math.min(i + random.nextInt(30), signal.length()), true);
+        }
+        return signal;
+    }
+
+    private static void assertSameSignal(DigitalSignal expected, DigitalSignal actual) {
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+            assertEquals(expected.nextSetBit(i), actual.nextSetBit(i));
+            assertEquals(expected.nextClearBit(i), actual.nextClearBit(i));
+            assertEquals(expected.previousSetBit(i), actual.previousSetBit(i));
+            assertEquals(expected.countHigh(i, expected.length()),
+                    actual.countHigh(i, actual.length()));
+        }
+        assertArrayEquals(expected.toBitSignal().toBooleanArray(),
+                actual.toBitSignal().toBooleanArray());
+    }
+
+    @Test
+    public void testSameAsSlice() {
+        BitSignal bits = buildSignal();
+        DigitalSignal[] signals = new DigitalSignal[]{bits, EdgeSignal.fromDigitalSignal(bits)};
+        for (DigitalSignal signal : signals) {
+            DigitalSignalView view = new DigitalSignalView(signal, 50, 300);
+            assertSameSignal(bits.slice(50, 350), view);
+            assertSameSignal(bits.slice(60, 120), view.slice(10, 70));
+        }
+    }
+
+    @Test
+    public void testAnalogView() {
+        short[] samples = new short[]{1, 2, 3, 4, 5};
+        AnalogSignalView view = new AnalogSignalView(samples, 1, 3).slice(1, 3);
+        assertEquals(2, view.length());
+        assertEquals(3, view.get(0));
+        assertArrayEquals(new short[]{3, 4}, view.toArray());
+    }
+}
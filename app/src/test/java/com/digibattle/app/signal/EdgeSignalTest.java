@@ -0,0 +1,61 @@
+package com.digibattle.app.signal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeSignalTest {
+
+    private static BitSignal buildSignal() {
+        Random random = new Random(1);
+        BitSignal signal = new BitSignal(500);
+        boolean level = true;
+        int i = 0;
+        while (i < signal.length()) {
+            int runLength = 1 + random.nextInt(40);
+            signal.set(i, Math.min(i + runLength, signal.length()), level);
+            level = !level;
+            i += runLength;
+        }
+        return signal;
+    }
+
+    @Test
+    public void testSameAsBitSignal() {
+        BitSignal bits = buildSignal();
+        EdgeSignal edges = EdgeSignal.fromDigitalSignal(bits);
+        assertArrayEquals(bits.toBooleanArray(), edges.toBitSignal().toBooleanArray());
+        for (int i = 0; i < bits.length(); i++) {
+            assertEquals(bits.get(i), edges.get(i));
+            assertEquals(bits.nextSetBit(i), edges.nextSetBit(i));
+            assertEquals(bits.nextClearBit(i), edges.nextClearBit(i));
+            assertEquals(bits.nextEdge(i), edges.nextEdge(i));
+            assertEquals(bits.previousSetBit(i), edges.previousSetBit(i));
+            assertEquals(bits.countHigh(i, bits.length()), edges.countHigh(i, edges.length()));
+            assertEquals(bits.countHigh(0, i), edges.countHigh(0, i));
+        }
+        assertEquals(bits.extractBits(new int[]{3, 99, 250, 499, 600}),
+                edges.extractBits(new int[]{3, 99, 250, 499, 600}));
+    }
+
+    @Test
+    public void testSlice() {
+        BitSignal bits = buildSignal();
+        EdgeSignal edges = EdgeSignal.fromDigitalSignal(bits);
+        int[][] ranges = new int[][]{{0, 500}, {17, 333}, {100, 101}, {250, 250}};
+        for (int[] range : ranges) {
+            assertArrayEquals(bits.slice(range[0], range[1]).toBooleanArray(),
+                    edges.slice(range[0], range[1]).toBitSignal().toBooleanArray());
+        }
+    }
+
+    @Test
+    public void testFromEdges() {
+        EdgeSignal signal = EdgeSignal.fromEdges(10, true, new int[]{3, 5});
+        assertEquals(8, signal.countHigh(0, 10));
+        assertFalse(signal.get(4));
+        assertEquals(2, signal.getNumOfEdges());
+    }
+}
@@ -0,0 +1,62 @@
+package com.digibattle.app.signal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WaveformShaperTest {
+
+    // Sample by sample shaping, with transistor levels.
+    private static short[] shape(BitSignal digital, float initRatio, int delta) {
+        short[] result = new short[digital.length()];
+        short value = 0;
+        for (int i = 0; i < result.length; i++) {
+            boolean high = digital.get(i);
+            if (i == 0 || high != digital.get(i - 1)) {
+                value = (short) ((high ? Short.MIN_VALUE : Short.MAX_VALUE) * initRatio);
+            } else if (high && value > Short.MIN_VALUE + delta) {
+                value = (short) (value - delta);
+            } else if (!high && value < Short.MAX_VALUE - delta) {
+                value = (short) (value + delta);
+            }
+            result[i] = value;
+        }
+        return result;
+    }
+
+    private static BitSignal buildSignal() {
+        Random random = new Random(3);
+        BitSignal signal = new BitSignal(5000);
+        boolean level = false;
+        for (int i = 0; i < signal.length(); ) {
+            int runLength = 1 + random.nextInt(600);
+            signal.set(i, Math.min(i + runLength, signal.length()), level);
+            level = !level;
+            i += runLength;
+        }
+        return signal;
+    }
+
+    @Test
+    public void testSameAsSampleBySample() {
+        BitSignal signal = buildSignal();
+        float[] ratios = new float[]{0.7f, 0.1f, 1f};
+        int[] deltas = new int[]{50, 0, 1000, 40000};
+        for (float ratio : ratios) {
+            for (int delta : deltas) {
+                WaveformShaper shaper = new WaveformShaper(Short.MIN_VALUE, Short.MAX_VALUE,
+                        ratio, delta, true);
+                assertArrayEquals(shape(signal, ratio, delta), shaper.render(signal));
+            }
+        }
+    }
+
+    @Test
+    public void testNoRamp() {
+        BitSignal signal = BitSignal.fromBooleanArray(new boolean[]{true, true, false});
+        WaveformShaper shaper = new WaveformShaper((short) 100, (short) -100, 0.5f, 10, false);
+        assertArrayEquals(new short[]{100, 100, -100}, shaper.render(signal));
+    }
+}
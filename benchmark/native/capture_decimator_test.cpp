@@ -0,0 +1,219 @@
+// Host checks of CaptureDecimator: where the blocks fall against toRecordedIndex, the level of
+// each recorded sample on edges and glitches, and the samples reported as dropped when the
+// capture ring is full. Exits with 1 if a check fails.
+
+#include <algorithm>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+#include "CaptureDecimator.h"
+
+namespace {
+
+// DigiBattleConfig.voltageChangeThreshold default.
+const int kThreshold = 10000;
+const int16_t kHigh = 20000;
+const int16_t kLow = -20000;
+
+struct Rates {
+    int input;
+    int output;
+};
+
+const Rates kRates[] = {{48000, 12000}, {44100, 12000}, {48000, 8000}, {44100, 16000},
+                        {48000, 44100}};
+
+int gFailures = 0;
+
+void expect(bool ok, const char *what, int line) {
+    if (!ok) {
+        fprintf(stderr, "Line %d failed: %s\n", line, what);
+        gFailures++;
+    }
+}
+
+#define EXPECT(condition) expect((condition), #condition, __LINE__)
+
+// Feed input in bursts of burstSize frames, the way the input callback does.
+std::vector<int16_t> decimate(CaptureDecimator *decimator, const std::vector<int16_t> &input,
+                              int32_t burstSize) {
+    FifoBuffer fifo(sizeof(int16_t), static_cast<uint32_t>(input.size()));
+    for (size_t i = 0; i < input.size(); i += burstSize) {
+        int32_t numFrames = std::min(burstSize, static_cast<int32_t>(input.size() - i));
+        EXPECT(decimator->process(input.data() + i, numFrames, &fifo) == 0);
+    }
+    return fifo.frames;
+}
+
+// Levels of AnalogToDigitalConverter after resetWithGuess(kThreshold), one per input sample.
+std::vector<bool> toLevels(const std::vector<int16_t> &input) {
+    std::vector<bool> levels(input.size());
+    bool level = false;
+    for (size_t i = 0; i < input.size(); i++) {
+        if (i == 0) {
+            level = input[i] > kThreshold;
+        } else if (input[i] - input[i - 1] > kThreshold) {
+            level = true;
+        } else if (input[i] - input[i - 1] < -kThreshold) {
+            level = false;
+        }
+        levels[i] = level;
+    }
+    return levels;
+}
+
+// Input frames are from the toy, block lengths follow from the two rates only.
+void testRecordedIndexMatchesBlocks() {
+    for (const Rates &rates : kRates) {
+        CaptureDecimator decimator(rates.input, rates.output, kThreshold);
+        FifoBuffer fifo(sizeof(int16_t), static_cast<uint32_t>(rates.output));
+        bool matches = true;
+        int16_t sample = kLow;
+        // A second of input, one frame at a time. After n frames the recording has exactly
+        // the samples before toRecordedIndex(n), so the sample of input frame i is
+        // toRecordedIndex(i) and partition indexes map onto the recording.
+        for (int32_t n = 1; n <= rates.input && matches; n++) {
+            decimator.process(&sample, 1, &fifo);
+            matches = static_cast<int32_t>(fifo.frames.size()) == decimator.toRecordedIndex(n);
+        }
+        EXPECT(matches);
+        EXPECT(static_cast<int32_t>(fifo.frames.size()) == rates.output);
+    }
+}
+
+// Runs of a few blocks with edges anywhere in a block. Each recorded sample has the level most
+// input samples of its block have, every edge is kept and moves by less than one block.
+void testEdgesStraddlingBlocks() {
+    for (const Rates &rates : kRates) {
+        int32_t blockSize = (rates.input + rates.output - 1) / rates.output;
+        std::vector<int16_t> input;
+        int16_t level = kLow;
+        unsigned int seed = 1;
+        while (input.size() < 20000) {
+            seed = seed * 1103515245 + 12345;
+            size_t runLength = 2 * blockSize + (seed >> 16) % (8 * blockSize);
+            input.insert(input.end(), runLength, level);
+            level = level == kLow ? kHigh : kLow;
+        }
+        CaptureDecimator decimator(rates.input, rates.output, kThreshold);
+        std::vector<int16_t> output = decimate(&decimator, input, 192);
+
+        std::vector<bool> levels = toLevels(input);
+        std::vector<int32_t> highCounts(output.size(), 0);
+        std::vector<int32_t> counts(output.size(), 0);
+        for (size_t i = 0; i < input.size(); i++) {
+            size_t block = static_cast<size_t>(
+                    decimator.toRecordedIndex(static_cast<int32_t>(i)));
+            if (block < output.size()) {
+                highCounts[block] += levels[i] ? 1 : 0;
+                counts[block]++;
+            }
+        }
+        bool previous = levels[0];
+        bool majority = true;
+        for (size_t k = 0; k < output.size(); k++) {
+            if (highCounts[k] * 2 != counts[k]) {
+                previous = highCounts[k] * 2 > counts[k];
+            }
+            majority = majority && output[k] == (previous ? CaptureDecimator::kHighLevel
+                                                          : CaptureDecimator::kLowLevel);
+        }
+        EXPECT(majority);
+
+        std::vector<size_t> inputEdges;
+        for (size_t i = 1; i < input.size(); i++) {
+            if (levels[i] != levels[i - 1]) {
+                inputEdges.push_back(i);
+            }
+        }
+        std::vector<size_t> outputEdges;
+        for (size_t k = 1; k < output.size(); k++) {
+            if (output[k] != output[k - 1]) {
+                outputEdges.push_back(k);
+            }
+        }
+        // The last edges may be in the unfinished block.
+        EXPECT(outputEdges.size() <= inputEdges.size());
+        EXPECT(outputEdges.size() + 1 >= inputEdges.size());
+        bool close = true;
+        for (size_t e = 0; e < outputEdges.size(); e++) {
+            double edge = static_cast<double>(inputEdges[e]) * rates.output / rates.input;
+            close = close && std::abs(edge - outputEdges[e]) < 1;
+        }
+        EXPECT(close);
+    }
+}
+
+// Blocks of exactly 4 input samples, written as L and H.
+std::vector<int16_t> fromPattern(const char *pattern) {
+    std::vector<int16_t> input;
+    for (const char *c = pattern; *c != '\0'; c++) {
+        if (*c == 'L' || *c == 'H') {
+            input.push_back(*c == 'H' ? kHigh : kLow);
+        }
+    }
+    return input;
+}
+
+void testGlitchBlocks() {
+    // A glitch of 1 sample, 2 samples across two blocks and 2 samples in one block (a tie keeps
+    // the previous level) is dropped, a pulse of 3 samples in a block is kept. Then edges in
+    // the middle of a block (a tie again) and a quarter in, and a 1 sample dip in a high run.
+    std::vector<int16_t> input = fromPattern(
+            "LLLL LLLL LHLL LLLL LLLH HLLL LLLL LHHL LLLL HHHL LLLL"
+            " LLHH HHHH HHLL LLLL LHHH HHHH HLHH HHHH HLLL LLLL");
+    std::vector<int16_t> expected = fromPattern(
+            "L    L    L    L    L    L    L    L    L    H    L"
+            "    L    H    H    L    H    H    H    H    L    L");
+    // The level only changes on steps over the threshold: a ramp of 5000 per sample, which
+    // the block mean would have turned into an edge, stays low.
+    for (int i = 0; i <= 8; i++) {
+        input.push_back(static_cast<int16_t>(kLow + 5000 * i));
+    }
+    input.insert(input.end(), 3, kHigh);
+    expected.insert(expected.end(), 3, kLow);
+    for (int16_t &sample : expected) {
+        sample = sample == kHigh ? CaptureDecimator::kHighLevel : CaptureDecimator::kLowLevel;
+    }
+    for (int32_t burstSize : {192, 5, 1}) {
+        CaptureDecimator decimator(48000, 12000, kThreshold);
+        EXPECT(decimate(&decimator, input, burstSize) == expected);
+    }
+}
+
+// Once a chunk does not fit, the rest of the burst is dropped so the order is kept, and all of
+// it is counted, in recorded samples.
+void testDroppedSamples() {
+    std::vector<int16_t> input(4000, kLow);
+    for (size_t i = 0; i < input.size(); i += 7) {
+        input[i] = kHigh;
+    }
+    CaptureDecimator reference(48000, 12000, kThreshold);
+    std::vector<int16_t> all = decimate(&reference, input, static_cast<int32_t>(input.size()));
+    EXPECT(all.size() == 1000);
+
+    CaptureDecimator decimator(48000, 12000, kThreshold);
+    FifoBuffer fifo(sizeof(int16_t), 300);
+    EXPECT(decimator.process(input.data(), static_cast<int32_t>(input.size()), &fifo) == 700);
+    EXPECT(fifo.frames == std::vector<int16_t>(all.begin(), all.begin() + 300));
+
+    decimator.reset();
+    EXPECT(decimator.process(input.data(), 400, nullptr) == 100);
+}
+
+}
+
+int main() {
+    testRecordedIndexMatchesBlocks();
+    testEdgesStraddlingBlocks();
+    testGlitchBlocks();
+    testDroppedSamples();
+    if (gFailures > 0) {
+        fprintf(stderr, "%d checks failed\n", gFailures);
+        return EXIT_FAILURE;
+    }
+    printf("All checks passed\n");
+    return EXIT_SUCCESS;
+}
@@ -0,0 +1,128 @@
+// Cost per partition of each way to make the output samples of a partition: nearest neighbour
+// and polyphase resampling of frames rendered at the encoder rate (the RESAMPLER_* choices of
+// AudioEngine), and rendering at the output rate with SymbolSynthesizer.
+// Each partition is handshake + start signal + one 16 bits word, shaped like the app does by
+// default. Prints microseconds per partition, best of a few runs.
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <vector>
+
+#include "PolyphaseResampler.h"
+#include "SymbolSynthesizer.h"
+#include "WaveformShaper.h"
+
+namespace {
+
+const int kOutputRates[] = {48000, 44100};
+const uint16_t kWord = 0xa5c3;
+const int kIterations = 200;
+const int kRuns = 5;
+
+// Shaping of SignalUtils with the default DigiBattleConfig, the input has a transistor.
+const int16_t kHighLevel = INT16_MIN;
+const int16_t kLowLevel = INT16_MAX;
+const float kInitRatio = 0.7f;
+const int kDelta = 50;
+
+struct Family {
+    const char *name;
+    int rate;
+    // DigimonMessageEncoder.getSymbolTimingUs of the family.
+    int32_t timingUs[SYMBOL_TIMING_FIELDS];
+};
+
+const Family kFamilies[] = {
+        {"Original", 4800, {59792, 2083, 833, 1042, 3125, 2708, 1458}},
+        {"Pendulum", 9321, {61581, 2146, 1073, 1073, 3219, 3219, 1073}},
+        {"Mini",     3465, {48773, 2886, 1443, 1732, 4040, 4329, 1443}},
+};
+
+SymbolTiming toSymbolTiming(const int32_t *timingUs) {
+    SymbolTiming timing;
+    timing.handshakeUs = timingUs[0];
+    timing.startHighUs = timingUs[1];
+    timing.startLowUs = timingUs[2];
+    timing.zeroHighUs = timingUs[3];
+    timing.zeroLowUs = timingUs[4];
+    timing.oneHighUs = timingUs[5];
+    timing.oneLowUs = timingUs[6];
+    return timing;
+}
+
+std::vector<int16_t> renderPartition(const SymbolSynthesizer &synthesizer) {
+    std::vector<int16_t> samples(static_cast<size_t>(synthesizer.getPartitionSize(0)));
+    synthesizer.render(0, 0, samples.data(), static_cast<int32_t>(samples.size()));
+    return samples;
+}
+
+// Synthesizer of the partition at rate, the slope scaled from the family rate like
+// AudioEngine::createSynthesizer does.
+SymbolSynthesizer makeSynthesizer(const Family &family, int rate) {
+    int64_t delta = WaveformShaper::scaleDelta(kDelta, family.rate, rate);
+    WaveformShaper shaper(kHighLevel, kLowLevel, kInitRatio, delta, true);
+    return SymbolSynthesizer(toSymbolTiming(family.timingUs), std::vector<uint16_t>{kWord},
+                             shaper, rate);
+}
+
+// Best time per call of body over kRuns runs of kIterations calls, in microseconds.
+template<typename Body>
+double timePerCallUs(Body body) {
+    double best = 0;
+    for (int run = 0; run < kRuns; run++) {
+        auto start = std::chrono::steady_clock::now();
+        for (int i = 0; i < kIterations; i++) {
+            body();
+        }
+        std::chrono::duration<double, std::micro> elapsed =
+                std::chrono::steady_clock::now() - start;
+        double perCall = elapsed.count() / kIterations;
+        best = run == 0 ? perCall : std::min(best, perCall);
+    }
+    return best;
+}
+
+}
+
+int main() {
+    printf("%-9s %6s %6s %7s %10s %10s %10s %10s\n", "family", "from", "to", "frames",
+           "nearest", "polyphase", "filter", "synthesis");
+    // Keeps the results alive, so the compiler can not drop the work.
+    long long checksum = 0;
+    for (const Family &family : kFamilies) {
+        std::vector<int16_t> source = renderPartition(makeSynthesizer(family, family.rate));
+        int sourceSize = static_cast<int>(source.size());
+        for (int outputRate : kOutputRates) {
+            // Same size as AudioEngine::resampleFrames gives a partition.
+            int outputSize = static_cast<int>(
+                    static_cast<int64_t>(sourceSize) * outputRate / family.rate);
+            std::vector<int16_t> output(static_cast<size_t>(outputSize));
+            double nearestUs = timePerCallUs([&]() {
+                resampleNearest(source.data(), sourceSize, output.data(), outputSize,
+                                family.rate, outputRate);
+                checksum += output[outputSize / 2];
+            });
+            PolyphaseResampler polyphase(family.rate, outputRate);
+            double polyphaseUs = timePerCallUs([&]() {
+                polyphase.resample(source.data(), sourceSize, output.data(), outputSize);
+                checksum += output[outputSize / 2];
+            });
+            // Built once per session that resamples, before its first partition.
+            double filterUs = timePerCallUs([&]() {
+                PolyphaseResampler filter(family.rate, outputRate);
+                filter.resample(source.data(), 1, output.data(), 1);
+                checksum += output[0];
+            });
+            SymbolSynthesizer synthesizer = makeSynthesizer(family, outputRate);
+            double synthesisUs = timePerCallUs([&]() {
+                synthesizer.render(0, 0, output.data(), outputSize);
+                checksum += output[outputSize / 2];
+            });
+            printf("%-9s %6d %6d %7d %10.1f %10.1f %10.1f %10.1f\n", family.name, family.rate,
+                   outputRate, outputSize, nearestUs, polyphaseUs, filterUs, synthesisUs);
+        }
+    }
+    printf("Times are microseconds per partition (checksum %lld)\n", checksum);
+    return 0;
+}
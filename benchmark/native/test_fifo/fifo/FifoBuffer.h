@@ -0,0 +1,34 @@
+#ifndef TEST_FIFOBUFFER_H
+#define TEST_FIFOBUFFER_H
+
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+#include <vector>
+
+// Stands in for the oboe FifoBuffer in host tests, which needs the Android headers. Keeps all
+// written 16 bits frames, up to the capacity, and is never read.
+namespace oboe {
+
+class FifoBuffer {
+public:
+    FifoBuffer(uint32_t bytesPerFrame, uint32_t capacityInFrames)
+            : mCapacity(static_cast<int32_t>(capacityInFrames)) {
+    }
+
+    int32_t write(const void *source, int32_t framesToWrite) {
+        int32_t written = std::min(framesToWrite, mCapacity - static_cast<int32_t>(frames.size()));
+        const int16_t *samples = static_cast<const int16_t *>(source);
+        frames.insert(frames.end(), samples, samples + written);
+        return written;
+    }
+
+    std::vector<int16_t> frames;
+
+private:
+    int32_t mCapacity;
+};
+
+}
+
+#endif //TEST_FIFOBUFFER_H
@@ -0,0 +1,122 @@
+package com.digibattle.benchmark;
+
+import com.digibattle.app.SignalUtils;
+import com.digibattle.app.encoder.ClockRecoveryDecoder;
+import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.DigitalSignal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the recording of a 10 words exchange (20 partitions) into words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    private static final int VOLTAGE_CHANGE_THRESHOLD = 10000;
+
+    @Param({"original", "pendulum", "mini"})
+    public String family;
+
+    @Param({"48000", "44100"})
+    public int inputRate;
+
+    private DigimonMessageEncoder mEncoder;
+    private short[] mAnalogSignal;
+    private int[][] mPartitionIndex;
+    private BitSignal mDigitalSignal;
+    private DigitalSignal[] mDigitalPartitions;
+    private boolean[][] mDigitalMessages;
+
+    @Setup
+    public void setup() {
+        mEncoder = ExchangeRecording.createEncoder(family);
+        ExchangeRecording recording = new ExchangeRecording(mEncoder, inputRate);
+        mAnalogSignal = recording.getSamples();
+        mPartitionIndex = recording.getPartitionIndex();
+        mDigitalSignal = SignalUtils.analog2Digital(mAnalogSignal, VOLTAGE_CHANGE_THRESHOLD);
+        mDigitalPartitions = new DigitalSignal[mPartitionIndex.length];
+        mDigitalMessages = new boolean[mPartitionIndex.length][];
+        for (int i = 0; i < mPartitionIndex.length; i++) {
+            mDigitalPartitions[i] = SignalUtils.getPartition(mDigitalSignal,
+                    mPartitionIndex[i][1], mPartitionIndex[i][2]);
+            mDigitalMessages[i] = mEncoder.decodeDigitalSignal(inputRate, mDigitalPartitions[i]);
+        }
+    }
+
+    @Benchmark
+    public BitSignal analog2Digital() {
+        return SignalUtils.analog2Digital(mAnalogSignal, VOLTAGE_CHANGE_THRESHOLD);
+    }
+
+    @Benchmark
+    public boolean[][] decodeDigitalSignal() {
+        boolean[][] result = new boolean[mDigitalPartitions.length][];
+        for (int i = 0; i < mDigitalPartitions.length; i++) {
+            result[i] = mEncoder.decodeDigitalSignal(inputRate, mDigitalPartitions[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String[] getHexMessage() {
+        String[] result = new String[mDigitalMessages.length];
+        for (int i = 0; i < mDigitalMessages.length; i++) {
+            result[i] = mEncoder.getHexMessage(mDigitalMessages[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] decodeWord() {
+        int[] result = new int[mDigitalPartitions.length];
+        for (int i = 0; i < mDigitalPartitions.length; i++) {
+            result[i] = mEncoder.decodeWord(inputRate, mDigitalPartitions[i]).getWord();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] decodeWithClockRecovery() {
+        ClockRecoveryDecoder decoder = new ClockRecoveryDecoder(mEncoder, inputRate);
+        int[] result = new int[mDigitalPartitions.length];
+        for (int i = 0; i < mDigitalPartitions.length; i++) {
+            result[i] = decoder.decode(mDigitalPartitions[i]).getWord();
+        }
+        return result;
+    }
+
+    /**
+     * Whole post session path: recording to words of all partitions.
+     */
+    @Benchmark
+    public int[] decodeRecording() {
+        BitSignal digitalSignal =
+                SignalUtils.analog2Digital(mAnalogSignal, VOLTAGE_CHANGE_THRESHOLD);
+        int[] result = new int[mPartitionIndex.length];
+        for (int i = 0; i < mPartitionIndex.length; i++) {
+            DigitalSignal partition = SignalUtils.getPartition(digitalSignal,
+                    mPartitionIndex[i][1], mPartitionIndex[i][2]);
+            result[i] = mEncoder.decodeWord(inputRate, partition).getWord();
+        }
+        return result;
+    }
+}
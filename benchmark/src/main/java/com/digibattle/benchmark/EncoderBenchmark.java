@@ -0,0 +1,78 @@
+package com.digibattle.benchmark;
+
+import com.digibattle.app.SignalUtils;
+import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.signal.BitSignal;
+import com.digibattle.app.signal.FrameBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the output frames of a 10 words message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncoderBenchmark {
+
+    @Param({"original", "pendulum", "mini"})
+    public String family;
+
+    private DigimonMessageEncoder mEncoder;
+    private BitSignal[] mDigitalPartitions;
+
+    @Setup
+    public void setup() {
+        mEncoder = ExchangeRecording.createEncoder(family);
+        mDigitalPartitions = new BitSignal[ExchangeRecording.MY_WORDS.length];
+        for (int i = 0; i < mDigitalPartitions.length; i++) {
+            mDigitalPartitions[i] =
+                    mEncoder.encodeWithHandshakeAndStartSignal(ExchangeRecording.MY_WORDS[i]);
+        }
+    }
+
+    @Benchmark
+    public BitSignal[] encode() {
+        String[] words = ExchangeRecording.MY_WORDS;
+        BitSignal[] result = new BitSignal[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = mEncoder.encode(words[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public BitSignal[] encodeWithHandshakeAndStartSignal() {
+        String[] words = ExchangeRecording.MY_WORDS;
+        BitSignal[] result = new BitSignal[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = mEncoder.encodeWithHandshakeAndStartSignal(words[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public short[][] digital2Analog() {
+        return SignalUtils.digital2Analog(mDigitalPartitions);
+    }
+
+    @Benchmark
+    public FrameBuffer encodeFrames() {
+        return mEncoder.encodeFrames(ExchangeRecording.MY_WORDS);
+    }
+}
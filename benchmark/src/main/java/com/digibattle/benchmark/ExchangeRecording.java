@@ -0,0 +1,100 @@
+package com.digibattle.benchmark;
+
+import com.digibattle.app.encoder.DigimonMessageEncoder;
+import com.digibattle.app.encoder.DigimonMiniEncoder;
+import com.digibattle.app.encoder.DigimonOriginalEncoder;
+import com.digibattle.app.encoder.DigimonPendulumEncoder;
+import com.digibattle.app.signal.BitSignal;
+
+import java.util.Random;
+
+/**
+ * Synthetic recording of a 10 words battle exchange, as the engine would record it: partner
+ * and my partitions alternate, each partition is handshake + start signals + message, with
+ * idle line between them. Edges are smoothed like the input filter of a sound card and
+ * gaussian noise is added, with a fixed seed so every run gets the same samples.
+ */
+public class ExchangeRecording {
+
+    public static final String[] MY_WORDS = new String[]{
+            "0000", "0000", "802e", "123e", "000e", "045e", "000e", "000e", "000e", "a0fe"};
+    public static final String[] PARTNER_WORDS = new String[]{
+            "4321", "8765", "002e", "0a7e", "000e", "088e", "000e", "000e", "000e", "5f0e"};
+
+    private static final long SEED = 20180606L;
+    private static final int IDLE_MS = 20;
+    private static final short LEVEL = 20000;
+    private static final float EDGE_SMOOTHING = 0.6f;
+    private static final float NOISE = 300f;
+
+    private final short[] mSamples;
+    // Handshake start, handshake end and signal end of each partition, like the engine.
+    private final int[][] mPartitionIndex;
+
+    public ExchangeRecording(DigimonMessageEncoder encoder, int inputRate) {
+        int numOfPartitions = MY_WORDS.length + PARTNER_WORDS.length;
+        BitSignal[] partitions = new BitSignal[numOfPartitions];
+        for (int i = 0; i < MY_WORDS.length; i++) {
+            partitions[2 * i] = encoder.encodeWithHandshakeAndStartSignal(PARTNER_WORDS[i]);
+            partitions[2 * i + 1] = encoder.encodeWithHandshakeAndStartSignal(MY_WORDS[i]);
+        }
+        int idle = inputRate * IDLE_MS / 1000;
+        double ratio = ((double) inputRate) / encoder.rate();
+        int size = idle;
+        for (BitSignal partition : partitions) {
+            size += (int) (partition.length() * ratio) + idle;
+        }
+        BitSignal digital = new BitSignal(size);
+        mPartitionIndex = new int[numOfPartitions][];
+        int position = 0;
+        digital.set(position, position + idle, true);
+        position += idle;
+        for (int i = 0; i < numOfPartitions; i++) {
+            BitSignal partition = partitions[i];
+            int partitionSize = (int) (partition.length() * ratio);
+            for (int j = 0; j < partitionSize; j++) {
+                digital.set(position + j, partition.get((int) (j / ratio)));
+            }
+            int handshakeEnd = position + (int) (encoder.getHandshakeSize() * ratio);
+            mPartitionIndex[i] = new int[]{position, handshakeEnd, position + partitionSize};
+            position += partitionSize;
+            digital.set(position, position + idle, true);
+            position += idle;
+        }
+        mSamples = toAnalog(digital);
+    }
+
+    private static short[] toAnalog(BitSignal digital) {
+        Random random = new Random(SEED);
+        short[] result = new short[digital.length()];
+        float value = LEVEL;
+        for (int i = 0; i < result.length; i++) {
+            float target = digital.get(i) ? LEVEL : -LEVEL;
+            value += (target - value) * EDGE_SMOOTHING;
+            float sample = value + (float) random.nextGaussian() * NOISE;
+            result[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        return result;
+    }
+
+    public short[] getSamples() {
+        return mSamples;
+    }
+
+    public int[][] getPartitionIndex() {
+        return mPartitionIndex;
+    }
+
+    public static DigimonMessageEncoder createEncoder(String family) {
+        switch (family) {
+            case "original":
+                return new DigimonOriginalEncoder();
+            case "pendulum":
+                return new DigimonPendulumEncoder();
+            case "mini":
+                return new DigimonMiniEncoder();
+            default:
+                throw new IllegalArgumentException("Unknown family: " + family);
+        }
+    }
+}